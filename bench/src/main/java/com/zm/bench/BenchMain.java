@@ -0,0 +1,30 @@
+package com.zm.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result reports the bytes
+ * allocated per operation (gc.alloc.rate.norm) next to its throughput.
+ *
+ * <pre>
+ * java -cp "bench/target/benchmarks.jar:*" com.zm.bench.BenchMain [JMH options] [regexp]
+ * </pre>
+ * Takes the options of {@link org.openjdk.jmh.Main}, for example "-f 1 -wi 2 Hex".
+ */
+public final class BenchMain {
+
+    private BenchMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
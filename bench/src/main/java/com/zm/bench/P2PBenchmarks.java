@@ -0,0 +1,125 @@
+package com.zm.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.template.ExpectedMessage;
+import kg.apc.jmeter.samplers.P2PUDP;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.assertions.P2PAssertion;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the encode, assert and extract paths, see {@link BenchMain}.
+ * The socket paths are in {@link SocketBenchmarks}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class P2PBenchmarks {
+
+    static final String TEMPLATE = "1\n"
+            + "[config]\norder=net\n"
+            + "[lhead]\n4@len=0\n"
+            + "[head]\n2@cmd=1001\n4@seq=1\n4@uid=123456\n"
+            + "[body]\n2@count=3\n4@item1=11\n4@item2=22\n4@item3=33\ns@name=peer\nh@hash=00112233445566778899aabbccddeeff\n";
+
+    private static final String EXPECTED = TEMPLATE.replace("4@seq=1", "4@seq=*");
+
+    private static final String PROPERTIES = "cmd,seq,uid,count,item,name,hash";
+
+    private P2PUDP udp;
+    private byte[] message;
+    private SampleResult passing;
+    private SampleResult failing;
+    private P2PAssertion assertion;
+    private P2PAssertion extracting;
+    private ExpectedMessage expected;
+    private JMeterVariables vars;
+    private int seq;
+
+    @Setup
+    public void setup() {
+        // 没有jmeter.properties时默认是DEBUG，采样器会打印报文
+        LoggingManager.setPriority("ERROR");
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        vars = JMeterContextService.getContext().getVariables();
+        udp = new P2PUDP();
+        message = P2PTCP.stringToP2PTCP(TEMPLATE);
+        passing = response(message);
+        failing = response(P2PTCP.stringToP2PTCP(TEMPLATE.replace("4@item2=22", "4@item2=23")));
+        assertion = new P2PAssertion();
+        assertion.setP2PTxt(EXPECTED);
+        assertion.setPropertyTxt("");
+        extracting = new P2PAssertion();
+        extracting.setP2PTxt(EXPECTED);
+        extracting.setPropertyTxt(PROPERTIES);
+        expected = ExpectedMessage.forText(EXPECTED);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return P2PTCP.stringToP2PTCP(TEMPLATE);
+    }
+
+    @Benchmark
+    public byte[] encodeNewSeq() {
+        return P2PTCP.stringToP2PTCP(TEMPLATE.replace("4@seq=1", "4@seq=" + (++seq)));
+    }
+
+    @Benchmark
+    public Object encodeUdp() {
+        return udp.encode(TEMPLATE);
+    }
+
+    @Benchmark
+    public AssertionResult assertPass() {
+        return check(assertion.getResult(passing), false);
+    }
+
+    @Benchmark
+    public AssertionResult assertFail() {
+        return check(assertion.getResult(failing), true);
+    }
+
+    @Benchmark
+    public AssertionResult assertSevenProperties() {
+        return check(extracting.getResult(passing), false);
+    }
+
+    @Benchmark
+    public JMeterVariables extractSevenProperties() {
+        expected.getExtractor(PROPERTIES).extract(expected.decode(message).getMessage(), vars);
+        return vars;
+    }
+
+    private static SampleResult response(byte[] data) {
+        SampleResult result = new SampleResult();
+        result.setResponseData(ResponseFormat.toResponseBytes(data));
+        return result;
+    }
+
+    private static AssertionResult check(AssertionResult result, boolean failure) {
+        if (result.isFailure() != failure) {
+            throw new IllegalStateException("Unexpected assertion result: " + result.getFailureMessage());
+        }
+        return result;
+    }
+}
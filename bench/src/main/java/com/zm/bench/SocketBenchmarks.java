@@ -0,0 +1,147 @@
+package com.zm.bench;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import kg.apc.jmeter.samplers.P2PUDP;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips of P2PTCP and P2PUDP, see {@link BenchMain}. The responders echo every
+ * message and run in the benchmark JVM on the loopback interface, so the results measure
+ * the plugin and the local network stack, not a server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketBenchmarks {
+
+    private Socket tcp;
+    private OutputStream tcpOut;
+    private InputStream tcpIn;
+    private P2PTCP tcpClient;
+
+    private P2PUDP udp;
+    private DatagramSocket udpSocket;
+    private DatagramPacket udpIn;
+
+    @Setup
+    public void setup() throws IOException {
+        LoggingManager.setPriority("ERROR");
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        tcp = startTcpEcho();
+        tcpOut = tcp.getOutputStream();
+        tcpIn = tcp.getInputStream();
+        tcpClient = new P2PTCP();
+        udp = new P2PUDP();
+        udpSocket = new DatagramSocket();
+        udpSocket.connect(InetAddress.getLoopbackAddress(), startUdpEcho());
+        udpIn = new DatagramPacket(new byte[65536], 65536);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tcp.close();
+        udpSocket.close();
+    }
+
+    @Benchmark
+    public String tcpRoundTrip() throws Exception {
+        tcpClient.write(tcpOut, P2PBenchmarks.TEMPLATE);
+        return tcpClient.read(tcpIn);
+    }
+
+    @Benchmark
+    public byte[] udpRoundTrip() throws IOException {
+        ByteBuffer data = udp.encode(P2PBenchmarks.TEMPLATE);
+        udpSocket.send(new DatagramPacket(data.array(), data.arrayOffset() + data.position(), data.remaining()));
+        udpSocket.receive(udpIn);
+        byte[] bytes = new byte[udpIn.getLength()];
+        System.arraycopy(udpIn.getData(), udpIn.getOffset(), bytes, 0, bytes.length);
+        return udp.decode(bytes);
+    }
+
+    /**
+     * Starts a responder that echoes every length-framed message and returns a connected client socket.
+     */
+    private static Socket startTcpEcho() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    s.setTcpNoDelay(true);
+                    DataInputStream in = new DataInputStream(s.getInputStream());
+                    OutputStream out = s.getOutputStream();
+                    byte[] buffer = new byte[65536];
+                    while (true) {
+                        int len = in.readInt();
+                        in.readFully(buffer, 4, len);
+                        buffer[0] = (byte) (len >>> 24);
+                        buffer[1] = (byte) (len >>> 16);
+                        buffer[2] = (byte) (len >>> 8);
+                        buffer[3] = (byte) len;
+                        out.write(buffer, 0, len + 4);
+                    }
+                } catch (Exception e) {
+                    // client closed
+                }
+            }
+        }, "tcp-echo");
+        thread.setDaemon(true);
+        thread.start();
+        Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+        client.setTcpNoDelay(true);
+        return client;
+    }
+
+    /**
+     * Starts a responder that echoes every datagram and returns its port.
+     */
+    private static int startUdpEcho() throws IOException {
+        final DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+                try {
+                    while (true) {
+                        packet.setLength(65536);
+                        server.receive(packet);
+                        server.send(packet);
+                    }
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        }, "udp-echo");
+        thread.setDaemon(true);
+        thread.start();
+        return server.getLocalPort();
+    }
+}
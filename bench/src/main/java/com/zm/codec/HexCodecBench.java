@@ -0,0 +1,103 @@
+package com.zm.codec;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.zm.utils.BU;
+import org.apache.jmeter.protocol.tcp.sampler.P2PBinaryTCPClientImpl;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HexCodec} with the hex helpers it replaces, see
+ * {@link com.zm.bench.BenchMain}. The message size is the parameter "size" (-p size=...).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexCodecBench {
+
+    @Param("512")
+    private int size;
+
+    private byte[] data;
+    private String hex;
+    private byte[] hexAscii;
+    private byte[] out;
+    private char[] chars;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+        hex = HexCodec.encode(data);
+        hexAscii = hex.getBytes();
+        out = new byte[size];
+        chars = new char[size * 2];
+    }
+
+    @Benchmark
+    public String encodeJOrphanUtils() {
+        return JOrphanUtils.baToHexString(data);
+    }
+
+    @Benchmark
+    public String encodeBU() {
+        return BU.bytes2Hex(data);
+    }
+
+    @Benchmark
+    public String encodeHexCodec() {
+        return HexCodec.encode(data);
+    }
+
+    @Benchmark
+    public int encodeHexCodecChars() {
+        return HexCodec.encode(data, 0, data.length, chars, 0);
+    }
+
+    @Benchmark
+    public byte[] decodeOld() {
+        return oldHexStringToByteArray(hex);
+    }
+
+    @Benchmark
+    public byte[] decodeBU() {
+        return BU.hex2Bytes(hex);
+    }
+
+    @Benchmark
+    public byte[] decodeBinaryTCPClient() {
+        return P2PBinaryTCPClientImpl.hexStringToByteArray(hex);
+    }
+
+    @Benchmark
+    public int decodeHexCodecAscii() {
+        return HexCodec.decodeAscii(hexAscii, 0, hexAscii.length, out, 0);
+    }
+
+    /** P2PBinaryTCPClientImpl.hexStringToByteArray before it used {@link HexCodec}. */
+    private static byte[] oldHexStringToByteArray(String hexEncodedBinary) {
+        char[] sc = hexEncodedBinary.toCharArray();
+        byte[] ba = new byte[sc.length / 2];
+        for (int i = 0; i < ba.length; i++) {
+            int nibble0 = Character.digit(sc[i * 2], 16);
+            int nibble1 = Character.digit(sc[i * 2 + 1], 16);
+            ba[i] = (byte) ((nibble0 << 4) | (nibble1));
+        }
+        return ba;
+    }
+}
@@ -0,0 +1,97 @@
+package com.zm.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appending capture file of one sampler, with rollover by size.
+ *
+ * Parts are named "name.N.cap". Each record is stored as
+ * magic, time stamp, request length, response length, request bytes, response bytes.
+ * The index "name.N.cap.idx" holds one (offset, time stamp) pair of longs per record,
+ * so {@link CaptureReader} can seek to any record.
+ */
+final class CaptureFile {
+
+    static final int MAGIC = 0x50325043; // "P2PC"
+
+    static final int RECORD_HEADER = 4 + 8 + 4 + 4;
+
+    static final String DATA_SUFFIX = ".cap"; // $NON-NLS-1$
+
+    static final String INDEX_SUFFIX = ".cap.idx"; // $NON-NLS-1$
+
+    private final File dir;
+
+    private final String name;
+
+    private final long maxSize;
+
+    private int part = -1;
+
+    private DataOutputStream data;
+
+    private DataOutputStream index;
+
+    private long size;
+
+    CaptureFile(File dir, String name, long maxSize) {
+        this.dir = dir;
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+
+    void write(CaptureRecord record) throws IOException {
+        int length = RECORD_HEADER + record.getRequest().length + record.getResponse().length;
+        if (data == null || (size > 0 && size + length > maxSize)) {
+            roll();
+        }
+        data.writeInt(MAGIC);
+        data.writeLong(record.getTimeStamp());
+        data.writeInt(record.getRequest().length);
+        data.writeInt(record.getResponse().length);
+        data.write(record.getRequest());
+        data.write(record.getResponse());
+        index.writeLong(size);
+        index.writeLong(record.getTimeStamp());
+        size += length;
+    }
+
+    private void roll() throws IOException {
+        close();
+        // 不覆盖以前运行留下的文件
+        File file;
+        do {
+            part++;
+            file = new File(dir, name + "." + part + DATA_SUFFIX);
+        } while (file.exists());
+        data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, name + "." + part + INDEX_SUFFIX))));
+        size = 0;
+    }
+
+    void flush() throws IOException {
+        if (data != null) {
+            // 先写数据再写索引，索引里的记录总是完整的
+            data.flush();
+            index.flush();
+        }
+    }
+
+    void close() throws IOException {
+        if (data != null) {
+            try {
+                flush();
+            } finally {
+                data.close();
+                index.close();
+                data = null;
+                index = null;
+            }
+        }
+    }
+}
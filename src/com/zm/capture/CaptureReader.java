@@ -0,0 +1,175 @@
+package com.zm.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.zm.utils.BU;
+
+/**
+ * Reads a capture file written by {@link CaptureWriter}, and renders it offline.
+ *
+ * Usage:
+ * <pre>
+ * java com.zm.capture.CaptureReader name.0.cap [first [last]]      hex dump of the records
+ * java com.zm.capture.CaptureReader -extract name.0.cap n [dir]    writes record n as .req/.res files
+ * </pre>
+ * Like the old "Save body to file", the extracted files and the hex dump skip an http header.
+ */
+public final class CaptureReader implements Closeable {
+
+    private static final int INDEX_ENTRY = 16;
+
+    private final String name;
+
+    private final RandomAccessFile data;
+
+    private final RandomAccessFile index;
+
+    /**
+     * @param file capture data file, its index is expected next to it
+     * @throws IOException if a file cannot be opened
+     */
+    public CaptureReader(File file) throws IOException {
+        String path = file.getPath();
+        this.name = file.getName().endsWith(CaptureFile.DATA_SUFFIX)
+                ? file.getName().substring(0, file.getName().length() - CaptureFile.DATA_SUFFIX.length())
+                : file.getName();
+        this.data = new RandomAccessFile(file, "r");
+        RandomAccessFile idx;
+        try {
+            idx = new RandomAccessFile(path.substring(0, path.length() - CaptureFile.DATA_SUFFIX.length())
+                    + CaptureFile.INDEX_SUFFIX, "r");
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        this.index = idx;
+    }
+
+    /**
+     * @return number of complete records
+     * @throws IOException on a read error
+     */
+    public int size() throws IOException {
+        return (int) (index.length() / INDEX_ENTRY);
+    }
+
+    /**
+     * @param n record number, from 0
+     * @return the record
+     * @throws IOException on a read error or a damaged file
+     */
+    public CaptureRecord read(int n) throws IOException {
+        if (n < 0 || n >= size()) {
+            throw new IndexOutOfBoundsException("Record " + n + " of " + size());
+        }
+        index.seek((long) n * INDEX_ENTRY);
+        long offset = index.readLong();
+        data.seek(offset);
+        if (data.readInt() != CaptureFile.MAGIC) {
+            throw new IOException("No record at offset " + offset);
+        }
+        long timeStamp = data.readLong();
+        byte[] request = new byte[data.readInt()];
+        byte[] response = new byte[data.readInt()];
+        data.readFully(request);
+        data.readFully(response);
+        return new CaptureRecord(name, timeStamp, request, response);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Prints records as hex.
+     *
+     * @param out output
+     * @param first first record
+     * @param last last record, inclusive
+     * @throws IOException on a read error
+     */
+    public void dump(PrintStream out, int first, int last) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        for (int i = first; i <= last && i < size(); i++) {
+            CaptureRecord record = read(i);
+            byte[] req = body(record.getRequest());
+            byte[] res = body(record.getResponse());
+            out.println("#" + i + " " + format.format(new Date(record.getTimeStamp())));
+            out.println("req(" + req.length + "): " + BU.bytes2HexGoodLook(req, 0, req.length));
+            out.println("res(" + res.length + "): " + BU.bytes2HexGoodLook(res, 0, res.length));
+        }
+    }
+
+    /**
+     * Writes one record as "name.n.req" and "name.n.res".
+     *
+     * @param n record number
+     * @param dir output directory
+     * @throws IOException on a read or write error
+     */
+    public void extract(int n, File dir) throws IOException {
+        CaptureRecord record = read(n);
+        write(new File(dir, name + "." + n + ".req"), body(record.getRequest()));
+        write(new File(dir, name + "." + n + ".res"), body(record.getResponse()));
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param data request or response
+     * @return the part after an http header, or {@code data} if there is none
+     */
+    public static byte[] body(byte[] data) {
+        int index = BU.findFirst(data, "\r\n\r\n".getBytes());
+        if (index != -1) {
+            index += 4;
+            return BU.subByte(data, index, data.length - index);
+        }
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: CaptureReader file.cap [first [last]]");
+            System.err.println("       CaptureReader -extract file.cap n [dir]");
+            System.exit(1);
+        }
+        if ("-extract".equals(args[0]) && args.length >= 3) {
+            CaptureReader reader = new CaptureReader(new File(args[1]));
+            try {
+                reader.extract(Integer.parseInt(args[2]), new File(args.length > 3 ? args[3] : "."));
+            } finally {
+                reader.close();
+            }
+            return;
+        }
+        CaptureReader reader = new CaptureReader(new File(args[0]));
+        try {
+            int first = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+            int last = args.length > 2 ? Integer.parseInt(args[2]) : reader.size() - 1;
+            reader.dump(System.out, first, last);
+        } finally {
+            reader.close();
+        }
+    }
+}
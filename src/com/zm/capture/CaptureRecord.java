@@ -0,0 +1,44 @@
+package com.zm.capture;
+
+/**
+ * One captured request/response pair.
+ */
+public final class CaptureRecord {
+
+    private final String samplerName;
+
+    private final long timeStamp;
+
+    private final byte[] request;
+
+    private final byte[] response;
+
+    /**
+     * @param samplerName label of the sample, selects the capture file
+     * @param timeStamp time of the sample in milliseconds
+     * @param request encoded request; kept by reference and must not be modified afterwards
+     * @param response raw response; kept by reference and must not be modified afterwards
+     */
+    public CaptureRecord(String samplerName, long timeStamp, byte[] request, byte[] response) {
+        this.samplerName = samplerName;
+        this.timeStamp = timeStamp;
+        this.request = request;
+        this.response = response;
+    }
+
+    public String getSamplerName() {
+        return samplerName;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public byte[] getRequest() {
+        return request;
+    }
+
+    public byte[] getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,263 @@
+package com.zm.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jmeter.threads.JMeterContextService;
+
+/**
+ * Memory-mapped, read-only view of a capture written by {@link CaptureWriter}, for replay.
+ *
+ * Starting from the given part "name.N.cap", the following parts "name.N+1.cap", ... are
+ * read as one sequence of records, so a capture of many gigabytes never has to fit in the
+ * heap. Each part is mapped when its first record is read; records are returned as views
+ * of the mapping, without copying.
+ *
+ * One source is shared by all threads replaying the capture: {@link #next(boolean)} hands
+ * out the records in turn, and {@link #scheduledNanos(long, double)} gives when each record
+ * is due so that the recorded intervals between requests are kept.
+ *
+ * A source lasts one test run: the first {@link #get(File)} of the next run, in the same
+ * JMeter session, starts a new source from the first record with a new clock, and maps the
+ * parts again, so a capture rewritten in between is read as it is now.
+ */
+public final class CaptureSource {
+
+    private static final Pattern PART = Pattern.compile("(.*)\\.(\\d+)" + Pattern.quote(CaptureFile.DATA_SUFFIX) + "$");
+
+    private static final int INDEX_ENTRY = 16;
+
+    private static final ConcurrentMap<String, CaptureSource> sources = new ConcurrentHashMap<String, CaptureSource>();
+
+    private final String name;
+
+    // 所属测试的开始时间，新的测试重新开始回放
+    private final long testStart;
+
+    private final File[] parts;
+
+    // 每个分卷第一个记录的全局序号，最后一项是记录总数
+    private final long[] firsts;
+
+    // 各分卷用到时才映射，可能被多个线程同时映射，用哪个都一样
+    private final AtomicReferenceArray<MappedByteBuffer> data;
+
+    private final AtomicReferenceArray<MappedByteBuffer> index;
+
+    private final long firstTimeStamp;
+
+    private final long span;
+
+    private final AtomicLong cursor = new AtomicLong();
+
+    private volatile long startNanos;
+
+    private CaptureSource(File first, long testStart) throws IOException {
+        this.name = first.getPath();
+        this.testStart = testStart;
+        List<File> files = new ArrayList<File>();
+        Matcher m = PART.matcher(first.getPath());
+        if (m.matches()) {
+            for (int n = Integer.parseInt(m.group(2)); ; n++) {
+                File part = new File(m.group(1) + "." + n + CaptureFile.DATA_SUFFIX);
+                if (!part.isFile()) {
+                    break;
+                }
+                files.add(part);
+            }
+        } else if (first.isFile()) {
+            files.add(first);
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No capture file " + first);
+        }
+        parts = files.toArray(new File[files.size()]);
+        firsts = new long[parts.length + 1];
+        for (int i = 0; i < parts.length; i++) {
+            firsts[i + 1] = firsts[i] + indexFile(parts[i]).length() / INDEX_ENTRY;
+        }
+        data = new AtomicReferenceArray<MappedByteBuffer>(parts.length);
+        index = new AtomicReferenceArray<MappedByteBuffer>(parts.length);
+        if (size() == 0) {
+            throw new IOException("Empty capture " + first);
+        }
+        firstTimeStamp = timeStamp(0);
+        // 循环回放时，下一轮在最后一个记录之后1ms开始
+        span = Math.max(0, timeStamp(size() - 1) - firstTimeStamp) + 1;
+    }
+
+    /**
+     * @param first first part of the capture to replay
+     * @return the source shared by all threads replaying {@code first} in the current test
+     * @throws IOException if the capture cannot be read
+     */
+    public static CaptureSource get(File first) throws IOException {
+        String key = first.getAbsolutePath();
+        long testStart = JMeterContextService.getTestStartTime();
+        CaptureSource source = sources.get(key);
+        while (source == null || source.testStart != testStart) {
+            CaptureSource created = new CaptureSource(first, testStart);
+            boolean set = source == null ? sources.putIfAbsent(key, created) == null
+                    : sources.replace(key, source, created);
+            source = set ? created : sources.get(key);
+        }
+        return source;
+    }
+
+    private static File indexFile(File part) {
+        String path = part.getPath();
+        return new File(path.substring(0, path.length() - CaptureFile.DATA_SUFFIX.length()) + CaptureFile.INDEX_SUFFIX);
+    }
+
+    /**
+     * @return number of records of all parts
+     */
+    public long size() {
+        return firsts[parts.length];
+    }
+
+    /**
+     * Takes the next record. The first call starts the replay clock.
+     *
+     * @param loop true to start again with the first record after the last one
+     * @return a sequence number, to be passed to the other methods; -1 when all records
+     *         were taken and {@code loop} is false
+     */
+    public long next(boolean loop) {
+        long n = cursor.getAndIncrement();
+        if (n == 0) {
+            startNanos = System.nanoTime();
+        } else {
+            while (startNanos == 0) {
+                // 第一个记录的线程马上会设置开始时间
+                Thread.yield();
+            }
+        }
+        if (n >= size() && !loop) {
+            return -1;
+        }
+        return n;
+    }
+
+    /**
+     * @param n sequence number from {@link #next(boolean)}
+     * @return index of the record in the capture
+     */
+    public long record(long n) {
+        return n % size();
+    }
+
+    /**
+     * @param n sequence number from {@link #next(boolean)}
+     * @param speed 1 for the recorded intervals, 10 for ten times faster
+     * @return {@link System#nanoTime()} when the record is due
+     */
+    public long scheduledNanos(long n, double speed) {
+        long lap = n / size();
+        long offset = lap * span + Math.max(0, timeStamp(record(n)) - firstTimeStamp);
+        return startNanos + (long) (offset * 1000000 / speed);
+    }
+
+    /**
+     * @param record index of the record
+     * @return recorded time stamp in ms
+     */
+    public long timeStamp(long record) {
+        int part = part(record);
+        return index(part).getLong((int) (record - firsts[part]) * INDEX_ENTRY + 8);
+    }
+
+    /**
+     * @param record index of the record
+     * @return read-only view of the recorded request
+     * @throws IOException if the part cannot be mapped or the record is damaged
+     */
+    public ByteBuffer request(long record) throws IOException {
+        return slice(record, true);
+    }
+
+    /**
+     * @param record index of the record
+     * @return read-only view of the recorded response
+     * @throws IOException if the part cannot be mapped or the record is damaged
+     */
+    public ByteBuffer response(long record) throws IOException {
+        return slice(record, false);
+    }
+
+    private ByteBuffer slice(long record, boolean request) throws IOException {
+        int part = part(record);
+        int offset = (int) index(part).getLong((int) (record - firsts[part]) * INDEX_ENTRY);
+        ByteBuffer buffer = data(part).duplicate();
+        if (buffer.getInt(offset) != CaptureFile.MAGIC) {
+            throw new IOException("No record at offset " + offset + " of " + parts[part]);
+        }
+        int requestLength = buffer.getInt(offset + 12);
+        int responseLength = buffer.getInt(offset + 16);
+        int start = offset + CaptureFile.RECORD_HEADER + (request ? 0 : requestLength);
+        buffer.limit(start + (request ? requestLength : responseLength)).position(start);
+        return buffer.slice();
+    }
+
+    private int part(long record) {
+        if (record < 0 || record >= size()) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + size());
+        }
+        int part = 0;
+        while (record >= firsts[part + 1]) {
+            part++;
+        }
+        return part;
+    }
+
+    private MappedByteBuffer index(int part) {
+        MappedByteBuffer buffer = index.get(part);
+        if (buffer == null) {
+            try {
+                buffer = map(indexFile(parts[part]), (firsts[part + 1] - firsts[part]) * INDEX_ENTRY);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map index of " + parts[part], e);
+            }
+            index.set(part, buffer);
+        }
+        return buffer;
+    }
+
+    private MappedByteBuffer data(int part) throws IOException {
+        MappedByteBuffer buffer = data.get(part);
+        if (buffer == null) {
+            buffer = map(parts[part], parts[part].length());
+            data.set(part, buffer);
+        }
+        return buffer;
+    }
+
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(file + " is larger than 2 GB, lower p2p.capture.maxFileSize when capturing");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureSource[" + name + ", " + parts.length + " parts, " + size() + " records]";
+    }
+}
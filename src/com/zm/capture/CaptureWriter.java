@@ -0,0 +1,239 @@
+package com.zm.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Writes captured samples on a single background thread.
+ *
+ * Samplers only put a record into a bounded queue; if the queue is full the record
+ * is dropped and counted instead of blocking the sampler. The writer appends each
+ * record to the {@link CaptureFile} of its sampler and flushes when the queue runs empty.
+ *
+ * Properties:
+ * "p2p.capture.dir" directory of the capture files (default: current directory),
+ * "p2p.capture.queueSize" maximum number of queued records (default 4096),
+ * "p2p.capture.maxFileSize" size in bytes after which a new part is started (default 64 MB).
+ */
+public final class CaptureWriter {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String dirName = JMeterUtils.getPropDefault("p2p.capture.dir", "."); // $NON_NLS-1$
+
+    private static final int queueSize = JMeterUtils.getPropDefault("p2p.capture.queueSize", 4096); // $NON_NLS-1$
+
+    private static final long maxFileSize = JMeterUtils.getPropDefault("p2p.capture.maxFileSize", 64L * 1024 * 1024); // $NON_NLS-1$
+
+    private static final int BATCH = 256;
+
+    private static CaptureWriter instance;
+
+    private final File dir;
+
+    private final long maxSize;
+
+    private final BlockingQueue<CaptureRecord> queue;
+
+    private final Map<String, CaptureFile> files = new HashMap<String, CaptureFile>();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long droppedLogged;
+
+    private volatile boolean closed;
+
+    // 文件已关闭，之后不再打开新的分卷；与打开文件使用同一个锁
+    private boolean filesClosed;
+
+    private volatile Thread thread;
+
+    private CaptureWriter(File dir, int queueSize, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.queue = new ArrayBlockingQueue<CaptureRecord>(Math.max(1, queueSize));
+    }
+
+    /**
+     * @return the writer shared by all samplers, started on first use
+     */
+    public static synchronized CaptureWriter getInstance() {
+        if (instance == null) {
+            File dir = new File(dirName);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                log.warn("Cannot create capture directory " + dir.getAbsolutePath());
+            }
+            final CaptureWriter writer = new CaptureWriter(dir, queueSize, maxFileSize);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writer.run();
+                }
+            }, "P2PCaptureWriter"); // $NON-NLS-1$
+            thread.setDaemon(true);
+            writer.thread = thread;
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writer.close();
+                }
+            }, "P2PCaptureWriter-shutdown")); // $NON-NLS-1$
+            log.info("Capturing to " + dir.getAbsolutePath() + ", queue size " + queueSize
+                    + ", max file size " + maxFileSize);
+            instance = writer;
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a record without blocking.
+     *
+     * @param record record to write
+     * @return false if the record was dropped because the queue is full
+     */
+    public boolean offer(CaptureRecord record) {
+        if (!closed && queue.offer(record)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    private void run() {
+        List<CaptureRecord> batch = new ArrayList<CaptureRecord>(BATCH);
+        while (!closed) {
+            try {
+                CaptureRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                synchronized (this) {
+                    write(batch);
+                    if (queue.isEmpty()) {
+                        flush();
+                    }
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void write(List<CaptureRecord> batch) {
+        if (filesClosed) {
+            // close() 等待超时后写线程才取到这批记录
+            dropped.addAndGet(batch.size());
+            return;
+        }
+        for (CaptureRecord record : batch) {
+            try {
+                file(record.getSamplerName()).write(record);
+                written.incrementAndGet();
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                log.error("Cannot write capture of " + record.getSamplerName(), e);
+            }
+        }
+    }
+
+    private CaptureFile file(String samplerName) {
+        CaptureFile file = files.get(samplerName);
+        if (file == null) {
+            file = new CaptureFile(dir, fileName(samplerName), maxSize);
+            files.put(samplerName, file);
+        }
+        return file;
+    }
+
+    private void flush() {
+        for (Map.Entry<String, CaptureFile> entry : files.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (IOException e) {
+                log.error("Cannot flush capture of " + entry.getKey(), e);
+            }
+        }
+        long count = dropped.get();
+        if (count != droppedLogged) {
+            log.warn("Capture queue full, " + count + " records dropped so far");
+            droppedLogged = count;
+        }
+    }
+
+    /**
+     * Waits for the batch the writer thread has taken, writes the queued records and
+     * closes all capture files. Records offered afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        Thread writer = thread;
+        if (writer != null && writer != Thread.currentThread()) {
+            try {
+                // 写线程最多1秒后看到closed
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (filesClosed) {
+                return;
+            }
+            List<CaptureRecord> rest = new ArrayList<CaptureRecord>();
+            queue.drainTo(rest);
+            write(rest);
+            closeFiles();
+            filesClosed = true;
+        }
+    }
+
+    private void closeFiles() {
+        for (Map.Entry<String, CaptureFile> entry : files.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                log.error("Cannot close capture of " + entry.getKey(), e);
+            }
+        }
+        files.clear();
+    }
+
+    static String fileName(String samplerName) {
+        StringBuilder sb = new StringBuilder(samplerName.length());
+        for (int i = 0; i < samplerName.length(); i++) {
+            char c = samplerName.charAt(i);
+            sb.append(c < ' ' || "\\/:*?\"<>|".indexOf(c) != -1 ? '_' : c);
+        }
+        return sb.length() == 0 ? "_" : sb.toString();
+    }
+}
@@ -0,0 +1,260 @@
+package com.zm.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lookup table hex codec used by all P2P samplers and assertions.
+ *
+ * Encoding writes lower case digits, like {@code JOrphanUtils.baToHexString}.
+ * Decoding accepts both cases; an odd number of digits is read as if a leading
+ * '0' was present, like {@code BU.hex2Bytes}. The methods taking a destination
+ * write into the caller's buffer and allocate nothing.
+ */
+public final class HexCodec {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final byte[] ASCII_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    // 每个字节对应的两个字符，高位在前
+    private static final char[] PAIRS = new char[512];
+
+    // 字符（或ASCII字节）对应的值，-1表示不是十六进制数字
+    private static final byte[] VALUES = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            PAIRS[i * 2] = DIGITS[i >>> 4];
+            PAIRS[i * 2 + 1] = DIGITS[i & 0xf];
+        }
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * @param data bytes
+     * @return hex text
+     */
+    public static String encode(byte[] data) {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * @param data buffer
+     * @param offset first byte
+     * @param length number of bytes
+     * @return hex text
+     */
+    public static String encode(byte[] data, int offset, int length) {
+        char[] chars = new char[length * 2];
+        encode(data, offset, length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * @param data buffer
+     * @param offset first byte
+     * @param length number of bytes
+     * @param dst receives {@code 2 * length} chars
+     * @param dstOffset first char written
+     * @return index after the last char written
+     */
+    public static int encode(byte[] data, int offset, int length, char[] dst, int dstOffset) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int p = (data[i] & 0xff) << 1;
+            dst[dstOffset++] = PAIRS[p];
+            dst[dstOffset++] = PAIRS[p + 1];
+        }
+        return dstOffset;
+    }
+
+    /**
+     * @param data buffer
+     * @param offset first byte
+     * @param length number of bytes
+     * @return hex digits as ASCII bytes
+     */
+    public static byte[] encodeToAscii(byte[] data, int offset, int length) {
+        byte[] ascii = new byte[length * 2];
+        encodeToAscii(data, offset, length, ascii, 0);
+        return ascii;
+    }
+
+    /**
+     * @param data buffer
+     * @param offset first byte
+     * @param length number of bytes
+     * @param dst receives {@code 2 * length} ASCII digits
+     * @param dstOffset first byte written
+     * @return index after the last byte written
+     */
+    public static int encodeToAscii(byte[] data, int offset, int length, byte[] dst, int dstOffset) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = data[i] & 0xff;
+            dst[dstOffset++] = ASCII_DIGITS[b >>> 4];
+            dst[dstOffset++] = ASCII_DIGITS[b & 0xf];
+        }
+        return dstOffset;
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code src} into {@code dst} as ASCII digits.
+     *
+     * @param src bytes to encode, consumed
+     * @param dst receives the digits
+     * @throws BufferOverflowException if {@code dst} is too small; nothing is consumed then
+     */
+    public static void encode(ByteBuffer src, ByteBuffer dst) {
+        if (dst.remaining() < src.remaining() * 2) {
+            throw new BufferOverflowException();
+        }
+        if (src.hasArray() && dst.hasArray()) {
+            int n = src.remaining();
+            int end = encodeToAscii(src.array(), src.arrayOffset() + src.position(), n,
+                    dst.array(), dst.arrayOffset() + dst.position());
+            src.position(src.position() + n);
+            dst.position(end - dst.arrayOffset());
+            return;
+        }
+        while (src.hasRemaining()) {
+            int b = src.get() & 0xff;
+            dst.put(ASCII_DIGITS[b >>> 4]);
+            dst.put(ASCII_DIGITS[b & 0xf]);
+        }
+    }
+
+    /**
+     * @param hex hex digits
+     * @return decoded bytes
+     * @throws IllegalArgumentException if {@code hex} contains a character that is not a hex digit
+     */
+    public static byte[] decode(CharSequence hex) {
+        byte[] data = new byte[(hex.length() + 1) / 2];
+        decode(hex, 0, hex.length(), data, 0);
+        return data;
+    }
+
+    /**
+     * @param hex hex digits
+     * @param offset first char
+     * @param length number of chars
+     * @param dst receives {@code (length + 1) / 2} bytes
+     * @param dstOffset first byte written
+     * @return index after the last byte written
+     * @throws IllegalArgumentException if a character is not a hex digit
+     */
+    public static int decode(CharSequence hex, int offset, int length, byte[] dst, int dstOffset) {
+        int i = offset;
+        int end = offset + length;
+        if ((length & 1) != 0) {
+            dst[dstOffset++] = (byte) value(hex.charAt(i), i);
+            i++;
+        }
+        for (; i < end; i += 2) {
+            char c0 = hex.charAt(i);
+            char c1 = hex.charAt(i + 1);
+            int high = c0 < 256 ? VALUES[c0] : -1;
+            int low = c1 < 256 ? VALUES[c1] : -1;
+            if ((high | low) < 0) {
+                value(high < 0 ? c0 : c1, high < 0 ? i : i + 1);
+            }
+            dst[dstOffset++] = (byte) (high << 4 | low);
+        }
+        return dstOffset;
+    }
+
+    /**
+     * @param ascii hex digits as ASCII bytes, e.g. response data of a sampler in hex mode
+     * @return decoded bytes
+     * @throws IllegalArgumentException if a byte is not a hex digit
+     */
+    public static byte[] decodeAscii(byte[] ascii) {
+        byte[] data = new byte[(ascii.length + 1) / 2];
+        decodeAscii(ascii, 0, ascii.length, data, 0);
+        return data;
+    }
+
+    /**
+     * @param ascii hex digits as ASCII bytes
+     * @param offset first digit
+     * @param length number of digits
+     * @param dst receives {@code (length + 1) / 2} bytes
+     * @param dstOffset first byte written
+     * @return index after the last byte written
+     * @throws IllegalArgumentException if a byte is not a hex digit
+     */
+    public static int decodeAscii(byte[] ascii, int offset, int length, byte[] dst, int dstOffset) {
+        int i = offset;
+        int end = offset + length;
+        if ((length & 1) != 0) {
+            dst[dstOffset++] = (byte) value((char) (ascii[i] & 0xff), i);
+            i++;
+        }
+        for (; i < end; i += 2) {
+            int high = VALUES[ascii[i] & 0xff];
+            int low = VALUES[ascii[i + 1] & 0xff];
+            if ((high | low) < 0) {
+                value((char) (ascii[high < 0 ? i : i + 1] & 0xff), high < 0 ? i : i + 1);
+            }
+            dst[dstOffset++] = (byte) (high << 4 | low);
+        }
+        return dstOffset;
+    }
+
+    /**
+     * Decodes the remaining ASCII digits of {@code src} into {@code dst}.
+     *
+     * @param src hex digits, consumed
+     * @param dst receives the bytes
+     * @throws BufferOverflowException if {@code dst} is too small; nothing is consumed then
+     * @throws IllegalArgumentException if a byte is not a hex digit
+     */
+    public static void decode(ByteBuffer src, ByteBuffer dst) {
+        int n = src.remaining();
+        if (dst.remaining() < (n + 1) / 2) {
+            throw new BufferOverflowException();
+        }
+        if (src.hasArray() && dst.hasArray()) {
+            int end = decodeAscii(src.array(), src.arrayOffset() + src.position(), n,
+                    dst.array(), dst.arrayOffset() + dst.position());
+            src.position(src.position() + n);
+            dst.position(end - dst.arrayOffset());
+            return;
+        }
+        int i = 0;
+        if ((n & 1) != 0) {
+            dst.put((byte) value((char) (src.get() & 0xff), i++));
+        }
+        while (i < n) {
+            int high = value((char) (src.get() & 0xff), i++);
+            dst.put((byte) (high << 4 | value((char) (src.get() & 0xff), i++)));
+        }
+    }
+
+    /**
+     * @return value of a hex digit
+     * @throws IllegalArgumentException if {@code c} is not a hex digit
+     */
+    private static int value(char c, int index) {
+        int v = c < 256 ? VALUES[c] : -1;
+        if (v < 0) {
+            throw new IllegalArgumentException("Invalid hex digit '" + c + "' at " + index);
+        }
+        return v;
+    }
+}
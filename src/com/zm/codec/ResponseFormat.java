@@ -0,0 +1,90 @@
+package com.zm.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * How the P2P samplers store responses in a {@link SampleResult}.
+ *
+ * By default responses are stored as hex text, which every listener can show.
+ * With the property "p2p.response.binary=true" the samplers store the raw bytes
+ * and {@link org.apache.jmeter.assertions.P2PAssertion} decodes them directly,
+ * so no hex string is built for a response unless it is displayed.
+ * The property must be the same for the samplers and the assertions.
+ */
+public final class ResponseFormat {
+
+    private static final boolean binary = JMeterUtils.getPropDefault("p2p.response.binary", false); // $NON_NLS-1$
+
+    /**
+     * Charset the TCP samplers report in binary mode. ISO-8859-1 maps every byte
+     * to one char and back, so TCPSampler's String round trip keeps the raw bytes.
+     */
+    public static final String BINARY_CHARSET = "ISO-8859-1"; // $NON_NLS-1$
+
+    private static final Charset LATIN1 = Charset.forName(BINARY_CHARSET);
+
+    private ResponseFormat() {
+    }
+
+    public static boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Converts bytes read by a TCP client to the String TCPSampler expects.
+     *
+     * @param data buffer
+     * @param offset start of the response
+     * @param length length of the response
+     * @return hex text, or the bytes as ISO-8859-1 chars in binary mode
+     */
+    public static String toResponseString(byte[] data, int offset, int length) {
+        if (binary) {
+            return new String(data, offset, length, LATIN1);
+        }
+        return HexCodec.encode(data, offset, length);
+    }
+
+    /**
+     * Converts a datagram to the response data of the UDP sampler.
+     *
+     * @param data datagram
+     * @return hex text bytes, or {@code data} itself in binary mode
+     */
+    public static byte[] toResponseBytes(byte[] data) {
+        if (binary) {
+            return data;
+        }
+        return HexCodec.encodeToAscii(data, 0, data.length);
+    }
+
+    /**
+     * Converts a message read from a buffer to response data.
+     *
+     * @param data buffer
+     * @param offset start of the message
+     * @param length length of the message
+     * @return hex text bytes, or a copy of the message in binary mode
+     */
+    public static byte[] toResponseBytes(byte[] data, int offset, int length) {
+        if (binary) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+        return HexCodec.encodeToAscii(data, offset, length);
+    }
+
+    /**
+     * @param response sample result of a P2P sampler
+     * @return the raw response bytes
+     */
+    public static byte[] getRawResponse(SampleResult response) {
+        if (binary) {
+            return response.getResponseData();
+        }
+        return HexCodec.decodeAscii(response.getResponseData());
+    }
+}
@@ -0,0 +1,166 @@
+package com.zm.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only, memory-mapped view of a corpus of pre-encoded P2P messages written by
+ * {@link CorpusCompiler}.
+ *
+ * The file holds the payloads one after the other, then an index of {@code count + 1}
+ * longs (the offset of every payload and the end of the last one), then a trailer:
+ * index offset (long), count (int), {@link #MAGIC} (int). All numbers are big-endian.
+ *
+ * A payload is read from the mapping without parsing or copying, so one corpus is
+ * shared by all threads; {@link #next()} hands the payloads out in turn. Files are
+ * mapped once per path, a recompiled corpus is only seen after a restart.
+ */
+public final class Corpus {
+
+    static final int MAGIC = 0x5032504b; // "P2PK"
+
+    static final int TRAILER = 8 + 4 + 4;
+
+    private static final ConcurrentMap<String, Corpus> corpora = new ConcurrentHashMap<String, Corpus>();
+
+    private final String path;
+
+    private final MappedByteBuffer buffer;
+
+    private final int indexOffset;
+
+    private final int count;
+
+    private final int maxLength;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private Corpus(File file) throws IOException {
+        this.path = file.getPath();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < TRAILER) {
+                throw new IOException("Not a corpus file: " + file);
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Corpus larger than 2 GB, split the CSV: " + file);
+            }
+            // 映射在通道关闭后仍然有效
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+        int end = buffer.capacity();
+        if (buffer.getInt(end - 4) != MAGIC) {
+            throw new IOException("Not a corpus file: " + file);
+        }
+        count = buffer.getInt(end - 8);
+        long index = buffer.getLong(end - TRAILER);
+        if (count < 0 || index < 0 || index + 8L * (count + 1) != end - TRAILER) {
+            throw new IOException("Damaged corpus file: " + file);
+        }
+        indexOffset = (int) index;
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, length(i));
+        }
+        maxLength = max;
+    }
+
+    /**
+     * @param file corpus file
+     * @return the shared mapping of the file, mapped on first use
+     * @throws IOException if the file cannot be read or is not a corpus
+     */
+    public static Corpus get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        Corpus corpus = corpora.get(key);
+        if (corpus == null) {
+            corpus = new Corpus(file);
+            Corpus previous = corpora.putIfAbsent(key, corpus);
+            if (previous != null) {
+                corpus = previous;
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * @return number of payloads
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return length of the longest payload, to size a buffer for {@link #copy(int, byte[])}
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return index of the next payload; the payloads are used in turn by all threads
+     */
+    public int next() {
+        return (cursor.getAndIncrement() & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * @param n payload number, from 0
+     * @return length of the payload in bytes
+     */
+    public int length(int n) {
+        return end(n) - start(n);
+    }
+
+    /**
+     * @param n payload number, from 0
+     * @return a read-only view of the payload, positioned at 0; the bytes are not copied
+     */
+    public ByteBuffer payload(int n) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end(n)).position(start(n));
+        return view.slice();
+    }
+
+    /**
+     * Copies a payload, for streams that need a byte array.
+     *
+     * @param n payload number, from 0
+     * @param dest array of at least {@link #length(int)} bytes
+     * @return length of the payload
+     */
+    public int copy(int n, byte[] dest) {
+        int start = start(n);
+        int length = end(n) - start;
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(dest, 0, length);
+        return length;
+    }
+
+    private int start(int n) {
+        if (n < 0 || n >= count) {
+            throw new IndexOutOfBoundsException("Payload " + n + " of " + count + " in " + path);
+        }
+        return (int) buffer.getLong(indexOffset + 8 * n);
+    }
+
+    private int end(int n) {
+        return (int) buffer.getLong(indexOffset + 8 * (n + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "Corpus[" + path + ", " + count + " payloads]";
+    }
+}
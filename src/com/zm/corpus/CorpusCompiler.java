@@ -0,0 +1,211 @@
+package com.zm.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.zm.template.MessageTemplateCache;
+
+/**
+ * Pre-encodes one P2P message per CSV line into a {@link Corpus} file, so data-driven
+ * tests do not parse and encode the template at every sample.
+ *
+ * The first CSV line names the columns; "${name}" in the template is replaced by the
+ * value of column "name" of each line. JMeter functions and "super." values cannot be
+ * resolved offline.
+ *
+ * Usage:
+ * <pre>
+ * java com.zm.corpus.CorpusCompiler template.txt data.csv out.p2pk [delimiter]
+ * </pre>
+ */
+public final class CorpusCompiler {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]*)\\}");
+
+    private CorpusCompiler() {
+    }
+
+    /**
+     * @param template P2P message template
+     * @param csv CSV file, UTF-8, with a header line
+     * @param delimiter CSV delimiter
+     * @param out corpus file to write
+     * @return number of payloads written
+     * @throws IOException on a read or write error
+     * @throws IllegalArgumentException if a line has the wrong number of columns
+     *         (values cannot span lines)
+     * @see #unresolvedVariables(String, File, char)
+     */
+    public static int compile(String template, File csv, char delimiter, File out) throws IOException {
+        // 离线编译，用独立的缓存，相同结构的模板只解析一次
+        MessageTemplateCache cache = new MessageTemplateCache(16);
+        long[] offsets = new long[1024];
+        int count = 0;
+        long offset = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 64 * 1024));
+        boolean written = false;
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IllegalArgumentException("Empty CSV file " + csv);
+            }
+            String[] names = split(line, delimiter);
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                String[] values = split(line, delimiter);
+                if (values.length != names.length) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " has " + values.length
+                            + " columns, the header has " + names.length);
+                }
+                String text = template;
+                for (int i = 0; i < names.length; i++) {
+                    text = text.replace("${" + names[i].trim() + "}", values[i]);
+                }
+                byte[] payload;
+                try {
+                    payload = cache.encode(text);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+                }
+                if (count + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = offset;
+                data.write(payload);
+                offset += payload.length;
+            }
+            offsets[count] = offset;
+            for (int i = 0; i <= count; i++) {
+                data.writeLong(offsets[i]);
+            }
+            data.writeLong(offset);
+            data.writeInt(count);
+            data.writeInt(Corpus.MAGIC);
+            written = true;
+        } finally {
+            reader.close();
+            data.close();
+            if (!written) {
+                // 不留下不完整的文件
+                out.delete();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the "${name}" references of the template that no CSV column replaces; they are
+     * encoded as they are.
+     *
+     * @param template P2P message template
+     * @param csv CSV file, UTF-8, with a header line
+     * @param delimiter CSV delimiter
+     * @return the unresolved names, in template order, without duplicates
+     * @throws IOException if the CSV file cannot be read
+     */
+    public static List<String> unresolvedVariables(String template, File csv, char delimiter) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+        String header;
+        try {
+            header = reader.readLine();
+        } finally {
+            reader.close();
+        }
+        List<String> columns = new ArrayList<String>();
+        if (header != null) {
+            for (String name : split(header, delimiter)) {
+                columns.add(name.trim());
+            }
+        }
+        List<String> unresolved = new ArrayList<String>();
+        Matcher m = VARIABLE.matcher(template);
+        while (m.find()) {
+            String name = m.group(1);
+            if (!columns.contains(name) && !unresolved.contains(name)) {
+                unresolved.add(name);
+            }
+        }
+        return unresolved;
+    }
+
+    /**
+     * Splits a CSV line; values may be quoted with '"', a quote inside is doubled.
+     * CSVSaveService needs the JMeter properties, which are not loaded offline.
+     */
+    static String[] split(String line, char delimiter) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote: " + line);
+        }
+        values.add(value.toString());
+        return values.toArray(new String[values.size()]);
+    }
+
+    private static String read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CorpusCompiler template.txt data.csv out.p2pk [delimiter]");
+            System.exit(1);
+        }
+        char delimiter = args.length > 3 ? ("\\t".equals(args[3]) ? '\t' : args[3].charAt(0)) : ',';
+        String template = read(new File(args[0]));
+        for (String name : unresolvedVariables(template, new File(args[1]), delimiter)) {
+            System.err.println("Warning: no column for ${" + name + "}, it is not replaced");
+        }
+        long start = System.currentTimeMillis();
+        int count = compile(template, new File(args[1]), delimiter, new File(args[2]));
+        System.out.println(count + " payloads written to " + args[2] + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,111 @@
+package com.zm.corpus;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A sampler text that sends payloads of a {@link Corpus} instead of encoding a template.
+ *
+ * The text holds a line "corpus:path" to send the payloads of the corpus in turn, or
+ * "corpus:path#n" to send payload n, for example "corpus:/data/login.p2pk#${__Random(0,999)}".
+ * For P2PTCP the first line still gives the number of responses to read.
+ */
+public final class CorpusReference {
+
+    public static final String PREFIX = "corpus:"; // $NON-NLS-1$
+
+    private final String text;
+
+    private final Corpus corpus;
+
+    // -1时轮流发送
+    private final int index;
+
+    private CorpusReference(String text, Corpus corpus, int index) {
+        this.text = text;
+        this.corpus = corpus;
+        this.index = index;
+    }
+
+    /**
+     * @param text sampler text
+     * @return true if the text refers to a corpus
+     */
+    public static boolean isReference(String text) {
+        return find(text) >= 0;
+    }
+
+    /**
+     * @param text sampler text
+     * @return the reference, or null if the text is a template
+     * @throws IOException if the corpus cannot be read
+     * @throws IllegalArgumentException if the payload number is invalid
+     */
+    public static CorpusReference parse(String text) throws IOException {
+        int start = find(text);
+        if (start < 0) {
+            return null;
+        }
+        int end = text.indexOf('\n', start);
+        String ref = (end < 0 ? text.substring(start) : text.substring(start, end)).trim();
+        int hash = ref.lastIndexOf('#');
+        int index = -1;
+        if (hash >= 0) {
+            try {
+                index = Integer.parseInt(ref.substring(hash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid payload number: " + ref);
+            }
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid payload number: " + ref);
+            }
+            ref = ref.substring(0, hash).trim();
+        }
+        Corpus corpus = Corpus.get(new File(ref));
+        if (corpus.size() == 0) {
+            throw new IllegalArgumentException("Empty corpus: " + ref);
+        }
+        if (index >= corpus.size()) {
+            throw new IllegalArgumentException("Payload " + index + " of " + corpus);
+        }
+        return new CorpusReference(text, corpus, index);
+    }
+
+    /**
+     * @return index of the text after the prefix, or -1
+     */
+    private static int find(String text) {
+        int i = text.indexOf(PREFIX);
+        while (i >= 0) {
+            // 只认行首的corpus:，避免与模板里的字段值混淆
+            int lineStart = i;
+            while (lineStart > 0 && (text.charAt(lineStart - 1) == ' ' || text.charAt(lineStart - 1) == '\t')) {
+                lineStart--;
+            }
+            if (lineStart == 0 || text.charAt(lineStart - 1) == '\n') {
+                return i + PREFIX.length();
+            }
+            i = text.indexOf(PREFIX, i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @param text sampler text
+     * @return true if this reference was parsed from {@code text}
+     */
+    public boolean matches(String text) {
+        return this.text.equals(text);
+    }
+
+    public Corpus getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * @return the payload to send: the fixed one, or the next one of the corpus
+     */
+    public int select() {
+        return index >= 0 ? index : corpus.next();
+    }
+}
@@ -0,0 +1,133 @@
+package com.zm.frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.zm.Field.EightBytes;
+import com.zm.Field.Field;
+import com.zm.Field.FourBytes;
+import com.zm.Field.IP;
+import com.zm.Field.OneByte;
+import com.zm.Field.TwoBytes;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+
+/**
+ * A numeric header field that the server copies from a request to its response,
+ * such as a sequence number, used to match pipelined responses to their requests.
+ *
+ * The field is located in the long header and header of the request template;
+ * responses are assumed to use the same header layout.
+ */
+public final class CorrelationField {
+
+    private final String name;
+    private final int offset;
+    private final int size;
+    private final boolean netByte;
+
+    private CorrelationField(String name, int offset, int size, boolean netByte) {
+        this.name = name;
+        this.offset = offset;
+        this.size = size;
+        this.netByte = netByte;
+    }
+
+    /**
+     * @param message parsed request template
+     * @param name name of the field
+     * @return the field, or null if it is not a 1, 2, 4 or 8 byte integer of the long header or header,
+     *         or a field of variable size comes before it
+     */
+    public static CorrelationField fromMessage(Message message, String name) {
+        int offset = 0;
+        MsgBlock[] blocks = {message.longHeader, message.header};
+        for (MsgBlock block : blocks) {
+            if (block == null) {
+                continue;
+            }
+            ArrayList<Field> list = block.list;
+            for (Field field : list) {
+                boolean integer = field instanceof OneByte || field instanceof TwoBytes
+                        || field instanceof FourBytes || field instanceof EightBytes;
+                if (field.getName().equals(name)) {
+                    return integer ? new CorrelationField(name, offset, field.getLen(), field.isNetByte()) : null;
+                }
+                if (!integer && !(field instanceof IP)) {
+                    return null;
+                }
+                offset += field.getLen();
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Largest value written to the field. Values stay below the sign bit,
+     * so signed and unsigned fields read back the same number.
+     *
+     * @return the maximum value
+     */
+    public long maxValue() {
+        return (1L << (size * 8 - 1)) - 1;
+    }
+
+    /**
+     * @param data buffer holding a whole frame
+     * @param start index of the first byte of the frame
+     * @param length length of the frame
+     * @return value of the field
+     * @throws IllegalStateException if the frame is too short to hold the field
+     */
+    public long read(byte[] data, int start, int length) {
+        if (length < offset + size) {
+            throw new IllegalStateException("Frame of " + length + " bytes has no " + name + " field");
+        }
+        long value = 0;
+        int pos = start + offset;
+        for (int i = 0; i < size; i++) {
+            int b = data[pos + (netByte ? i : size - 1 - i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Writes a value into an encoded message.
+     *
+     * @param buffer buffer holding the message; its position is not changed
+     * @param start index of the first byte of the message
+     * @param value new value, truncated to the size of the field
+     */
+    public void write(ByteBuffer buffer, int start, long value) {
+        int pos = start + offset;
+        for (int i = 0; i < size; i++) {
+            int shift = 8 * (netByte ? size - 1 - i : i);
+            buffer.put(pos + i, (byte) (value >>> shift));
+        }
+    }
+
+    /**
+     * @return number of bytes before the field
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return size of the field in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "CorrelationField[name=" + name + ", offset=" + offset + ", size=" + size
+                + ", order=" + (netByte ? "net" : "host") + "]";
+    }
+}
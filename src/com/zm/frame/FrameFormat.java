@@ -0,0 +1,163 @@
+package com.zm.frame;
+
+import java.util.ArrayList;
+
+import com.zm.Field.EightBytes;
+import com.zm.Field.Field;
+import com.zm.Field.FourBytes;
+import com.zm.Field.IP;
+import com.zm.Field.OneByte;
+import com.zm.Field.TwoBytes;
+import com.zm.encryption.Encrypt;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+import com.zm.message.MsgConfig;
+import com.zm.utils.U;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Describes where the length of a P2P message is stored.
+ *
+ * A frame is {@code lengthFieldOffset + lengthFieldSize + value + lengthAdjustment}
+ * bytes long, where {@code value} is the unsigned content of the length field.
+ * This matches the len field written by {@link MsgBlock#setBodyLen(int)}, which
+ * counts every byte after the len field.
+ */
+public final class FrameFormat {
+
+    private static final int offsetProp = JMeterUtils.getPropDefault("p2p.tcp.lengthFieldOffset", 0); // $NON_NLS-1$
+
+    private static final int sizeProp = JMeterUtils.getPropDefault("p2p.tcp.lengthFieldSize", 0); // $NON_NLS-1$
+
+    private static final int adjustmentProp = JMeterUtils.getPropDefault("p2p.tcp.lengthAdjustment", 0); // $NON_NLS-1$
+
+    private static final boolean hostOrderProp = JMeterUtils.getPropDefault("p2p.tcp.lengthFieldHostOrder", false); // $NON_NLS-1$
+
+    private static final int maxFrameLength = JMeterUtils.getPropDefault("p2p.tcp.maxFrameLength", 16 * 1024 * 1024); // $NON_NLS-1$
+
+    private final int offset;
+    private final int size;
+    private final int adjustment;
+    private final boolean netByte;
+
+    public FrameFormat(int offset, int size, int adjustment, boolean netByte) {
+        if (offset < 0 || (size != 1 && size != 2 && size != 4 && size != 8)) {
+            throw new IllegalArgumentException("Invalid length field: offset=" + offset + " size=" + size);
+        }
+        this.offset = offset;
+        this.size = size;
+        this.adjustment = adjustment;
+        this.netByte = netByte;
+    }
+
+    /**
+     * @return the format set by the "p2p.tcp.lengthField*" properties, or null if not set
+     */
+    public static FrameFormat fromProperties() {
+        if (sizeProp <= 0) {
+            return null;
+        }
+        return new FrameFormat(offsetProp, sizeProp, adjustmentProp, !hostOrderProp);
+    }
+
+    /**
+     * Finds the len field of a request template, assuming the response uses the same header.
+     *
+     * @param text P2P message template
+     * @return the format, or null if the template has no usable len field
+     */
+    public static FrameFormat fromTemplate(String text) {
+        // http头和加密后的数据无法从len字段确定长度
+        String http = U.getHttpHeaderSec(text);
+        if (http != null && http.length() > 0) {
+            return null;
+        }
+        MsgConfig config = U.getMsgConfig(text);
+        if (config.encrypt != null && config.encrypt != Encrypt.NONE) {
+            return null;
+        }
+        return fromMessage(new Message(text));
+    }
+
+    /**
+     * @param message parsed message
+     * @return the format of the first len field of the long header or header, or null
+     */
+    public static FrameFormat fromMessage(Message message) {
+        MsgBlock block = message.longHeader != null ? message.longHeader : message.header;
+        if (block == null) {
+            return null;
+        }
+        ArrayList<Field> list = block.list;
+        int offset = 0;
+        for (Field field : list) {
+            if (field.getName().toLowerCase().indexOf("len") != -1) {
+                if (!isFixedSize(field) || field instanceof IP) {
+                    return null;
+                }
+                return new FrameFormat(offset, field.getLen(), 0, field.isNetByte());
+            }
+            if (!isFixedSize(field)) {
+                return null;
+            }
+            offset += field.getLen();
+        }
+        return null;
+    }
+
+    private static boolean isFixedSize(Field field) {
+        return field instanceof OneByte || field instanceof TwoBytes || field instanceof FourBytes
+                || field instanceof EightBytes || field instanceof IP;
+    }
+
+    /**
+     * @return number of bytes needed before {@link #frameLength(byte[], int)} can be called
+     */
+    public int headerLength() {
+        return offset + size;
+    }
+
+    /**
+     * @param data buffer holding at least {@link #headerLength()} bytes of the frame
+     * @param start index of the first byte of the frame
+     * @return total length of the frame
+     * @throws IllegalStateException if the length is negative or above "p2p.tcp.maxFrameLength"
+     */
+    public int frameLength(byte[] data, int start) {
+        long value = 0;
+        int pos = start + offset;
+        for (int i = 0; i < size; i++) {
+            int b = data[pos + (netByte ? i : size - 1 - i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        long length = (long) offset + size + value + adjustment;
+        if (value < 0 || length < headerLength() || length > maxFrameLength) {
+            throw new IllegalStateException("Invalid frame length " + length + " (len field=" + value + ")");
+        }
+        return (int) length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FrameFormat)) {
+            return false;
+        }
+        FrameFormat other = (FrameFormat) o;
+        return offset == other.offset && size == other.size && adjustment == other.adjustment
+                && netByte == other.netByte;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((offset * 31 + size) * 31 + adjustment) * 2 + (netByte ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameFormat[offset=" + offset + ", size=" + size + ", adjustment=" + adjustment
+                + ", order=" + (netByte ? "net" : "host") + "]";
+    }
+}
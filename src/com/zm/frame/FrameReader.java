@@ -0,0 +1,139 @@
+package com.zm.frame;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads whole length-framed P2P messages from a stream.
+ *
+ * One instance belongs to one connection: the buffer is kept between samples
+ * and only grows when a larger frame arrives. Not thread-safe.
+ */
+public final class FrameReader {
+
+    private byte[] buffer;
+
+    private int length;
+
+    private long firstByteNanos;
+
+    // 每个消息读完的时间
+    private long[] frameNanos = new long[4];
+
+    private int frames;
+
+    public FrameReader() {
+        this(4096);
+    }
+
+    public FrameReader(int initialSize) {
+        buffer = new byte[initialSize];
+    }
+
+    /**
+     * Forgets the frames read so far, keeping the buffer.
+     */
+    public void reset() {
+        length = 0;
+        frames = 0;
+    }
+
+    /**
+     * Reads exactly one frame and appends it to the buffer.
+     *
+     * @param is stream to read from
+     * @param format where the frame length is stored
+     * @return length of the frame read
+     * @throws EOFException if the stream ends inside a frame
+     * @throws IOException when reading fails
+     */
+    public int readFrame(InputStream is, FrameFormat format) throws IOException {
+        int start = length;
+        readFully(is, format.headerLength());
+        int frameLength = format.frameLength(buffer, start);
+        readFully(is, frameLength - format.headerLength());
+        if (frames == frameNanos.length) {
+            frameNanos = Arrays.copyOf(frameNanos, frames * 2);
+        }
+        frameNanos[frames++] = System.nanoTime();
+        return frameLength;
+    }
+
+    /**
+     * Reads exactly count bytes and appends them to the buffer, for responses of known length.
+     *
+     * @param is stream to read from
+     * @param count number of bytes
+     * @throws EOFException if the stream ends before
+     * @throws IOException when reading fails
+     */
+    public void read(InputStream is, int count) throws IOException {
+        readFully(is, count);
+    }
+
+    private void readFully(InputStream is, int count) throws IOException {
+        ensureCapacity(length + count);
+        int end = length + count;
+        while (length < end) {
+            int x = is.read(buffer, length, end - length);
+            if (x < 0) {
+                throw new EOFException("Stream closed after " + length + " bytes, expected " + end);
+            }
+            if (length == 0) {
+                firstByteNanos = System.nanoTime();
+            }
+            length += x;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    /**
+     * @return the internal buffer, valid from 0 to {@link #getLength()}
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return number of bytes read since the last {@link #reset()}
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the first bytes since the last {@link #reset()} arrived
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    /**
+     * @return number of frames read since the last {@link #reset()}
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @param index index of the frame, from 0
+     * @return {@link System#nanoTime()} when the frame was complete
+     */
+    public long getFrameNanos(int index) {
+        return frameNanos[index];
+    }
+
+    /**
+     * @return a copy of the bytes read since the last {@link #reset()}
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+}
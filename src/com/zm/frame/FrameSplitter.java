@@ -0,0 +1,42 @@
+package com.zm.frame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a response holding several length-framed P2P messages into the messages.
+ *
+ * Unlike {@link FrameReader}, which needs to know how many messages to read, the
+ * splitter works on the bytes already received, however many socket reads they took.
+ */
+public final class FrameSplitter {
+
+    private FrameSplitter() {
+    }
+
+    /**
+     * @param data raw response
+     * @param format where the frame length is stored
+     * @return the messages, in the order received
+     * @throws IllegalStateException if a frame length is invalid or the last frame is incomplete
+     */
+    public static List<byte[]> split(byte[] data, FrameFormat format) {
+        List<byte[]> frames = new ArrayList<byte[]>();
+        int start = 0;
+        while (start < data.length) {
+            if (data.length - start < format.headerLength()) {
+                throw new IllegalStateException("Incomplete message " + (frames.size() + 1) + ": "
+                        + (data.length - start) + " bytes left, header needs " + format.headerLength());
+            }
+            int length = format.frameLength(data, start);
+            if (data.length - start < length) {
+                throw new IllegalStateException("Incomplete message " + (frames.size() + 1) + ": "
+                        + (data.length - start) + " bytes left, frame length " + length);
+            }
+            frames.add(Arrays.copyOfRange(data, start, start + length));
+            start += length;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,138 @@
+package com.zm.frame;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative long keys, such as correlation values, to int values.
+ *
+ * Open addressing with linear probing over two primitive arrays, so {@link #put},
+ * {@link #get} and {@link #remove} never allocate. The table does not grow: it is
+ * sized for a maximum number of entries when created. Not thread safe.
+ */
+public final class LongIntMap {
+
+    /** Returned by {@link #get} and {@link #remove} when the key is absent. */
+    public static final int MISSING = -1;
+
+    private static final long FREE = -1L;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+    private final int capacity;
+    private int size;
+
+    /**
+     * @param capacity maximum number of entries
+     */
+    public LongIntMap(int capacity) {
+        // 装载因子不超过0.5，探测链保持很短
+        int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.keys = new long[length];
+        this.values = new int[length];
+        this.mask = length - 1;
+        this.capacity = capacity;
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param key non-negative key
+     * @param value value
+     * @return previous value, or {@link #MISSING}
+     * @throws IllegalStateException if the map is full
+     */
+    public int put(long key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size >= capacity) {
+            throw new IllegalStateException("Map full, capacity " + capacity);
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return MISSING;
+    }
+
+    /**
+     * @return the value, or {@link #MISSING}
+     */
+    public int get(long key) {
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return the removed value, or {@link #MISSING}
+     */
+    public int remove(long key) {
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                int old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, FREE);
+            size = 0;
+        }
+    }
+
+    /**
+     * Fills the hole at i with later entries of the probe chain, so lookups need no tombstones.
+     */
+    private void shiftBack(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == FREE) {
+                break;
+            }
+            int home = slot(key);
+            // 只有原位置不在 (hole, i] 区间内的元素才能移到空位
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = FREE;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,76 @@
+package com.zm.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Pool of direct buffers shared by the samplers of the JVM.
+ *
+ * Direct buffers are expensive to allocate and are freed only by the garbage collector,
+ * so samplers borrow one per sample instead of allocating it. Buffers have the size
+ * set by "p2p.nio.bufferSize" (default 64 KB, the largest datagram); at most
+ * "p2p.nio.pooledBuffers" (default 256) idle buffers are kept.
+ */
+public final class DirectBufferPool {
+
+    private static final int bufferSize = JMeterUtils.getPropDefault("p2p.nio.bufferSize", 64 * 1024); // $NON_NLS-1$
+
+    private static final int maxIdle = JMeterUtils.getPropDefault("p2p.nio.pooledBuffers", 256); // $NON_NLS-1$
+
+    private static final DirectBufferPool INSTANCE = new DirectBufferPool(bufferSize, maxIdle);
+
+    private final int size;
+
+    private final int max;
+
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public DirectBufferPool(int size, int max) {
+        this.size = size;
+        this.max = max;
+    }
+
+    public static DirectBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return capacity of the pooled buffers
+     */
+    public int getBufferSize() {
+        return size;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        idleCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer buffer from {@link #acquire()}, not used by the caller afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != size) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= max) {
+            idle.add(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
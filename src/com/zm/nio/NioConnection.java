@@ -0,0 +1,225 @@
+package com.zm.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.zm.frame.FrameFormat;
+
+/**
+ * A non-blocking connection driven by a {@link SelectorLoop}.
+ *
+ * Requests are written as they are queued; the input is split into whole messages
+ * with a {@link FrameFormat}, and each message is passed to the listener of the
+ * request waiting for it. One request may be outstanding at a time, like a peer
+ * that waits for the answer before it asks again.
+ */
+public final class NioConnection {
+
+    /**
+     * Receives the outcome of one request. Called on a selector thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param frame the whole response message
+         */
+        void onResponse(byte[] frame);
+
+        /**
+         * @param e why the request failed; the connection is closed
+         */
+        void onError(IOException e);
+    }
+
+    private final SelectorLoop loop;
+
+    private final SocketChannel channel;
+
+    private final FrameFormat format;
+
+    private final Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private volatile Listener listener;
+
+    private volatile boolean closed;
+
+    // 以下只在selector线程中访问
+    private SelectionKey key;
+
+    private byte[] input = new byte[4096];
+
+    private int inputLength;
+
+    NioConnection(SelectorLoop loop, InetSocketAddress address, FrameFormat format) throws IOException {
+        this.loop = loop;
+        this.format = format;
+        this.channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        loop.execute(this);
+    }
+
+    /**
+     * Queues a request.
+     *
+     * @param data encoded request, not modified
+     * @param listener receives the response
+     * @throws IllegalStateException if the connection is closed or still waits for a response
+     */
+    public void send(byte[] data, Listener listener) {
+        if (closed) {
+            throw new IllegalStateException("Connection closed");
+        }
+        if (this.listener != null) {
+            throw new IllegalStateException("Previous request still waiting for its response");
+        }
+        this.listener = listener;
+        writes.add(ByteBuffer.wrap(data));
+        loop.execute(this);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return true if a request waits for its response
+     */
+    public boolean isBusy() {
+        return listener != null;
+    }
+
+    /**
+     * Closes the connection; a waiting request is not notified.
+     */
+    public void close() {
+        closed = true;
+        listener = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    void update(Selector selector) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (key == null) {
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+            if (channel.isConnected()) {
+                key.interestOps(writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (CancelledKeyException e) {
+            fail(new IOException("Connection closed"));
+        }
+    }
+
+    void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (key.isWritable()) {
+                write();
+            }
+            if (key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (CancelledKeyException e) {
+            fail(new IOException("Connection closed"));
+        } catch (IllegalStateException e) {
+            // 长度字段不合法，后面的数据无法分帧
+            fail(new IOException(e.getMessage()));
+        }
+    }
+
+    private void write() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = writes.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            writes.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        // send() 可能在poll之后又加入了数据
+        if (!writes.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void read() throws IOException {
+        while (true) {
+            if (inputLength == input.length) {
+                input = Arrays.copyOf(input, input.length * 2);
+            }
+            int n = channel.read(ByteBuffer.wrap(input, inputLength, input.length - inputLength));
+            if (n < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            if (n == 0) {
+                return;
+            }
+            inputLength += n;
+            deliverFrames();
+        }
+    }
+
+    private void deliverFrames() {
+        int start = 0;
+        while (inputLength - start >= format.headerLength()) {
+            int length = format.frameLength(input, start);
+            if (inputLength - start < length) {
+                if (length > input.length) {
+                    input = Arrays.copyOf(input, length);
+                }
+                break;
+            }
+            byte[] frame = Arrays.copyOfRange(input, start, start + length);
+            start += length;
+            Listener current = listener;
+            listener = null;
+            if (current != null) {
+                current.onResponse(frame);
+            }
+        }
+        if (start > 0) {
+            System.arraycopy(input, start, input, 0, inputLength - start);
+            inputLength -= start;
+        }
+    }
+
+    private void fail(IOException e) {
+        Listener current = listener;
+        close();
+        if (current != null) {
+            current.onError(e);
+        }
+    }
+}
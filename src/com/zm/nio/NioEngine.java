@@ -0,0 +1,65 @@
+package com.zm.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zm.frame.FrameFormat;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * A few selector threads shared by all non-blocking P2P connections of the JVM.
+ *
+ * The number of threads is set by the property "p2p.nio.selectors"
+ * (default: number of processors). Connections are spread over them round-robin.
+ */
+public final class NioEngine {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final int selectors = JMeterUtils.getPropDefault("p2p.nio.selectors", // $NON_NLS-1$
+            Runtime.getRuntime().availableProcessors());
+
+    private static NioEngine instance;
+
+    private final SelectorLoop[] loops;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private NioEngine(int count) throws IOException {
+        loops = new SelectorLoop[Math.max(1, count)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop();
+            Thread thread = new Thread(loops[i], "P2PNioSelector-" + i); // $NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+        }
+        log.info("Started " + loops.length + " selector threads");
+    }
+
+    /**
+     * @return the engine, started on first use
+     * @throws IOException if a selector cannot be opened
+     */
+    public static synchronized NioEngine getInstance() throws IOException {
+        if (instance == null) {
+            instance = new NioEngine(selectors);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts connecting; requests sent before the connection is established are
+     * written once it is.
+     *
+     * @param address server address
+     * @param format how responses are split into messages
+     * @return the connection
+     * @throws IOException if the channel cannot be opened
+     */
+    public NioConnection connect(InetSocketAddress address, FrameFormat format) throws IOException {
+        SelectorLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        return new NioConnection(loop, address, format);
+    }
+}
@@ -0,0 +1,59 @@
+package com.zm.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * One selector thread of the {@link NioEngine}.
+ *
+ * Channels are only registered and their interest sets only changed on this thread;
+ * other threads queue the connection with {@link #execute(NioConnection)}.
+ */
+final class SelectorLoop implements Runnable {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final Selector selector;
+
+    private final Queue<NioConnection> pending = new ConcurrentLinkedQueue<NioConnection>();
+
+    SelectorLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Asks the loop to register the connection or update its interest set.
+     */
+    void execute(NioConnection connection) {
+        pending.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                NioConnection connection;
+                while ((connection = pending.poll()) != null) {
+                    connection.update(selector);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((NioConnection) key.attachment()).handle(key);
+                }
+            } catch (Exception e) {
+                // 单个连接的错误在NioConnection里处理，这里只防止线程退出
+                log.error("Selector loop error", e);
+            }
+        }
+    }
+}
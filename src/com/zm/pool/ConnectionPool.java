@@ -0,0 +1,286 @@
+package com.zm.pool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * TCP connections to P2P servers shared by all threads.
+ *
+ * Each target (host:port) keeps between "p2p.pool.min" and "p2p.pool.max" connections.
+ * {@link #prewarm(String, int)} opens the minimum one after another before the load
+ * starts, so threads starting together do not all connect at once; it does so once per
+ * target, however many threads call it. A background thread
+ * checks connections idle longer than "p2p.pool.idleCheck" ms, closes those the server
+ * has closed or reset, and opens new ones up to the minimum.
+ *
+ * Properties:
+ * "p2p.pool.min" connections kept open per target (default 0),
+ * "p2p.pool.max" connections per target (default 64),
+ * "p2p.pool.connectTimeout" ms (default 5000),
+ * "p2p.pool.borrowTimeout" ms to wait for a free connection when max are in use (default 10000),
+ * "p2p.pool.idleCheck" ms of idleness after which a connection is checked (default 30000).
+ */
+public final class ConnectionPool {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final int minSize = JMeterUtils.getPropDefault("p2p.pool.min", 0); // $NON_NLS-1$
+
+    private static final int maxSize = JMeterUtils.getPropDefault("p2p.pool.max", 64); // $NON_NLS-1$
+
+    private static final int connectTimeout = JMeterUtils.getPropDefault("p2p.pool.connectTimeout", 5000); // $NON_NLS-1$
+
+    private static final long borrowTimeout = JMeterUtils.getPropDefault("p2p.pool.borrowTimeout", 10000L); // $NON_NLS-1$
+
+    private static final long idleCheck = JMeterUtils.getPropDefault("p2p.pool.idleCheck", 30000L); // $NON_NLS-1$
+
+    private static ConnectionPool instance;
+
+    /**
+     * Connections of one target. A permit is held by every open connection.
+     */
+    private static final class Target {
+        final String host;
+        final int port;
+        final String key;
+        final Semaphore permits = new Semaphore(maxSize);
+        // 最近归还的在队首，空闲久的在队尾
+        final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+        // 由target加锁保护
+        boolean prewarmed;
+
+        Target(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.key = host + ":" + port;
+        }
+    }
+
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * @return the pool, its health check thread started on first use
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            final ConnectionPool pool = new ConnectionPool();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pool.run();
+                }
+            }, "P2PConnectionPool"); // $NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+            log.info("Connection pool min " + minSize + ", max " + maxSize + " per target");
+            instance = pool;
+        }
+        return instance;
+    }
+
+    /**
+     * Opens connections to the target until it has "p2p.pool.min", the first time it is
+     * called for the target; other callers wait until it is done, then return. A failure
+     * is thrown to the first caller only, the health check opens the connections later.
+     */
+    public void prewarm(String host, int port) throws IOException {
+        Target target = target(host, port);
+        synchronized (target) {
+            if (target.prewarmed) {
+                return;
+            }
+            target.prewarmed = true;
+            fill(target);
+        }
+    }
+
+    /**
+     * Takes an idle connection, or opens one if the target has fewer than the maximum.
+     *
+     * @param soTimeout read timeout set on the socket
+     * @throws SocketTimeoutException if no connection became free in "p2p.pool.borrowTimeout" ms
+     */
+    public PooledConnection borrow(String host, int port, int soTimeout) throws IOException {
+        Target target = target(host, port);
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        while (true) {
+            PooledConnection c = target.idle.pollFirst();
+            if (c == null && target.permits.tryAcquire()) {
+                c = open(target);
+            }
+            if (c == null) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new SocketTimeoutException("No free connection to " + target.key + " in " + borrowTimeout + " ms");
+                }
+                try {
+                    // 等待归还；其它线程关闭连接时释放的名额在下一轮取得
+                    c = target.idle.pollFirst(Math.min(left, 100), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a connection to " + target.key);
+                }
+                if (c == null) {
+                    continue;
+                }
+            }
+            if (c.socket.isClosed() || c.getInputStream().available() > 0) {
+                // 空闲时收到数据，连接状态不可信
+                discard(target, c);
+                continue;
+            }
+            c.socket.setSoTimeout(soTimeout);
+            return c;
+        }
+    }
+
+    /**
+     * Returns a connection whose exchange completed.
+     */
+    public void release(PooledConnection c) {
+        c.markUsed();
+        targets.get(c.target).idle.offerFirst(c);
+    }
+
+    /**
+     * Closes a connection in an unknown state, for example after an error.
+     */
+    public void invalidate(PooledConnection c) {
+        discard(targets.get(c.target), c);
+    }
+
+    private Target target(String host, int port) {
+        String key = host + ":" + port;
+        Target target = targets.get(key);
+        if (target == null) {
+            target = new Target(host, port);
+            Target previous = targets.putIfAbsent(key, target);
+            if (previous != null) {
+                target = previous;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Opens a connection; the caller holds a permit, released on failure.
+     */
+    private PooledConnection open(Target target) throws IOException {
+        Socket socket = new Socket();
+        try {
+            long start = System.nanoTime();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(target.host, target.port), connectTimeout);
+            return new PooledConnection(target.key, socket, System.nanoTime() - start);
+        } catch (IOException e) {
+            target.permits.release();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 未连接
+            }
+            throw e;
+        }
+    }
+
+    private void discard(Target target, PooledConnection c) {
+        c.close();
+        target.permits.release();
+    }
+
+    private void fill(Target target) throws IOException {
+        while (target.permits.availablePermits() > maxSize - minSize && target.permits.tryAcquire()) {
+            target.idle.offerLast(open(target));
+        }
+    }
+
+    private void run() {
+        long interval = Math.max(1000, Math.min(idleCheck, 10000));
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Target target : targets.values()) {
+                check(target);
+                try {
+                    fill(target);
+                } catch (IOException e) {
+                    log.warn("Cannot reopen connections to " + target.key + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the connections idle longer than "p2p.pool.idleCheck"; connections taken
+     * meanwhile by samplers are skipped.
+     */
+    private void check(Target target) {
+        long limit = System.currentTimeMillis() - idleCheck;
+        List<PooledConnection> stale = new ArrayList<PooledConnection>();
+        for (PooledConnection c : target.idle) {
+            if (c.lastUsed < limit) {
+                stale.add(c);
+            }
+        }
+        for (PooledConnection c : stale) {
+            if (!target.idle.remove(c)) {
+                continue;
+            }
+            if (isAlive(c)) {
+                c.lastUsed = System.currentTimeMillis();
+                target.idle.offerLast(c);
+            } else {
+                log.info("Closing " + c + ", closed by the server");
+                discard(target, c);
+            }
+        }
+    }
+
+    /**
+     * A read with a short timeout: an alive idle connection has nothing to read.
+     */
+    private static boolean isAlive(PooledConnection c) {
+        if (c.socket.isClosed()) {
+            return false;
+        }
+        try {
+            int timeout = c.socket.getSoTimeout();
+            c.socket.setSoTimeout(1);
+            try {
+                InputStream in = c.getInputStream();
+                if (in.available() > 0) {
+                    return false;
+                }
+                // 返回-1表示已关闭，读到数据则连接状态不可信
+                in.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                c.socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
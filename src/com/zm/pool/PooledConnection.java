@@ -0,0 +1,87 @@
+package com.zm.pool;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import com.zm.frame.FrameReader;
+
+/**
+ * A socket of a {@link ConnectionPool}, with its streams and frame buffer.
+ * Used by one thread between {@link ConnectionPool#borrow} and {@link ConnectionPool#release}.
+ */
+public final class PooledConnection {
+
+    final String target;
+
+    final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final FrameReader frameReader = new FrameReader();
+
+    private long connectNanos;
+
+    private boolean used;
+
+    long lastUsed;
+
+    PooledConnection(String target, Socket socket, long connectNanos) throws IOException {
+        this.target = target;
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        this.connectNanos = connectNanos;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public FrameReader getFrameReader() {
+        return frameReader;
+    }
+
+    /**
+     * @return time spent connecting, for the first borrower only; 0 afterwards
+     */
+    public long takeConnectNanos() {
+        long nanos = connectNanos;
+        connectNanos = 0;
+        return nanos;
+    }
+
+    /**
+     * @return true if an earlier borrower used the connection, so the server may have closed it meanwhile
+     */
+    public boolean isReused() {
+        return used;
+    }
+
+    void markUsed() {
+        used = true;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 已断开
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PooledConnection[" + target + ", local port " + socket.getLocalPort() + "]";
+    }
+}
@@ -0,0 +1,192 @@
+package com.zm.pool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+
+import com.zm.frame.FrameFormat;
+import com.zm.frame.FrameReader;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * One request and its responses over a connection of the {@link ConnectionPool}: a number
+ * of length-framed responses, or any {@link Conversation}.
+ *
+ * The sample time covers the exchange only: the time to open a new connection is
+ * reported as the connect time. If a reused connection turns out to be closed (end of
+ * stream or reset) before any response byte arrives, the server has probably closed it
+ * while idle, and the request is sent again on another connection; the sample time then
+ * runs from the first attempt, less the time to open the new connection. A read
+ * timeout is never retried, as the server may already be processing the request.
+ */
+public final class PooledExchange {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /**
+     * Writes a request and reads its response on a pooled connection.
+     *
+     * @param <T> type of the response
+     */
+    public interface Conversation<T> {
+
+        /**
+         * @param connection connection to use; the caller releases or discards it
+         * @return the response
+         * @throws Exception if the write or read failed
+         */
+        T exchange(PooledConnection connection) throws Exception;
+
+        /**
+         * @return {@link System#nanoTime()} when the first response byte of the last
+         *         {@link #exchange(PooledConnection)} arrived, 0 if none did
+         */
+        long getFirstByteNanos();
+    }
+
+    private PooledExchange() {
+    }
+
+    /**
+     * Sends the request and reads the responses, and sets the time stamp, time, latency
+     * and connect time of {@code result}. Nothing else of the result is set.
+     *
+     * @param host server
+     * @param port port
+     * @param timeout read timeout in ms
+     * @param data encoded request
+     * @param responses number of responses to read
+     * @param format where the length of a response is stored
+     * @param result result to time; on failure its time runs until the failure
+     * @return the responses
+     * @throws IOException if the exchange failed
+     */
+    public static byte[] exchange(String host, int port, int timeout, byte[] data, int responses,
+                                  FrameFormat format, SampleResult result) throws IOException {
+        try {
+            return exchange(host, port, timeout, new Frames(data, responses, format), result);
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Frames只抛出IOException
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Runs {@code conversation} on a pooled connection, and sets the same fields of
+     * {@code result} as {@link #exchange(String, int, int, byte[], int, FrameFormat, SampleResult)}.
+     * The conversation may run twice, see the class comment; an exception whose cause is
+     * the end of stream or a reset counts as a closed connection.
+     *
+     * @param host server
+     * @param port port
+     * @param timeout read timeout in ms
+     * @param conversation writes the request and reads the response
+     * @param result result to time; on failure its time runs until the failure
+     * @param <T> type of the response
+     * @return the response of the conversation
+     * @throws Exception if the connection could not be opened or the conversation failed
+     */
+    public static <T> T exchange(String host, int port, int timeout, Conversation<T> conversation,
+                                 SampleResult result) throws Exception {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        // 重发前取得新连接的时间，不计入采样时间
+        long reconnect = 0;
+        PooledConnection c = null;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                long borrowStart = System.nanoTime();
+                c = pool.borrow(host, port, timeout);
+                long connect = c.takeConnectNanos();
+                if (connect > 0) {
+                    result.setConnectTime(connect / 1000000);
+                }
+                if (attempt == 0) {
+                    startMillis = System.currentTimeMillis();
+                    start = System.nanoTime();
+                } else {
+                    reconnect = System.nanoTime() - borrowStart;
+                }
+                try {
+                    T response = conversation.exchange(c);
+                    long end = System.nanoTime();
+                    setTime(result, startMillis, (end - start - reconnect) / 1000000);
+                    long firstByte = conversation.getFirstByteNanos();
+                    // 空响应没有首字节时间
+                    result.setLatency(((firstByte != 0 ? firstByte : end) - start - reconnect) / 1000000);
+                    pool.release(c);
+                    c = null;
+                    return response;
+                } catch (Exception e) {
+                    boolean reused = c.isReused();
+                    pool.invalidate(c);
+                    c = null;
+                    // 复用的连接可能已被服务器关闭，没收到响应时换一个连接重发
+                    if (attempt > 0 || !reused || conversation.getFirstByteNanos() != 0 || !isClosed(e)) {
+                        throw e;
+                    }
+                    log.debug("Resending on a new connection: " + e);
+                }
+            }
+        } catch (Exception e) {
+            if (c != null) {
+                pool.invalidate(c);
+            }
+            setTime(result, startMillis, (System.nanoTime() - start - reconnect) / 1000000);
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the connection was closed by the server; false for a read timeout,
+     *         after which the request may still be processed
+     */
+    private static boolean isClosed(Exception e) {
+        // P2PTCP把IO异常包在ReadException里
+        Throwable t = e instanceof IOException ? e : e.getCause();
+        return t instanceof EOFException || t instanceof SocketException;
+    }
+
+    private static void setTime(SampleResult result, long start, long elapsed) {
+        result.setStampAndTime(result.isStampedAtStart() ? start : start + elapsed, elapsed);
+    }
+
+    /**
+     * Writes the request and reads a number of length-framed responses.
+     */
+    private static final class Frames implements Conversation<byte[]> {
+        private final byte[] data;
+        private final int responses;
+        private final FrameFormat format;
+        private FrameReader reader;
+
+        Frames(byte[] data, int responses, FrameFormat format) {
+            this.data = data;
+            this.responses = responses;
+            this.format = format;
+        }
+
+        public byte[] exchange(PooledConnection connection) throws IOException {
+            reader = connection.getFrameReader();
+            reader.reset();
+            OutputStream out = connection.getOutputStream();
+            out.write(data);
+            out.flush();
+            for (int i = 0; i < responses; i++) {
+                reader.readFrame(connection.getInputStream(), format);
+            }
+            return reader.toByteArray();
+        }
+
+        public long getFirstByteNanos() {
+            return reader != null && reader.getLength() > 0 ? reader.getFirstByteNanos() : 0;
+        }
+    }
+}
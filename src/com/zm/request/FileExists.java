@@ -1,6 +1,9 @@
 package com.zm.request;
 
+import com.zm.rmi.BatchExists;
 import com.zm.rmi.Exists;
+import com.zm.rmi.ExistsStubs;
+import com.zm.rmi.WaitingExists;
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
@@ -8,10 +11,16 @@ import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
-import java.net.MalformedURLException;
-import java.rmi.Naming;
-import java.rmi.NotBoundException;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * Created by zhangmin on 2016/4/12.
@@ -21,11 +30,17 @@ public class FileExists extends AbstractJavaSamplerClient {
     private String[] queryTypes = {"文件是否存在", "目录是否存在", "目录下是否有文件", "文件列表"};
     private String samplerData = "";
 
+    // pathList文件内容，文件名不变时复用
+    private String pathListFile;
+    private String[] pathList;
+
     public Arguments getDefaultParameters() {
         Arguments params = new Arguments();
         params.addArgument("rmiServer", "127.0.0.1");
         params.addArgument("type", "0:文件存在/1:目录存在/2:目录下有文件/3:列出文件列表");
         params.addArgument("filePath", "");
+        params.addArgument("pathList", "");
+        params.addArgument("waitTimeout", "0");
         return params;
     }
 
@@ -47,6 +62,14 @@ public class FileExists extends AbstractJavaSamplerClient {
             return sr;
         }
         String filePath = javaSamplerContext.getParameter("filePath");
+        String pathListName = javaSamplerContext.getParameter("pathList", "").trim();
+        if (pathListName.length() > 0 && type < 3) {
+            return runBatch(sr, rmiServer, type, pathListName);
+        }
+        long waitTimeout = javaSamplerContext.getLongParameter("waitTimeout", 0);
+        if (waitTimeout > 0 && type < 3) {
+            return runWait(sr, rmiServer, type, filePath, waitTimeout);
+        }
 
         sr.setSampleLabel("请求查看" + queryTypes[type]);
         samplerData = "请求查看" + filePath + queryTypes[type];
@@ -59,20 +82,14 @@ public class FileExists extends AbstractJavaSamplerClient {
         Exists exists = null;
         String  result = "false";
         try {
-            exists = (Exists) Naming.lookup("rmi://" + rmiServer + "/exists");
-            switch (type){
-                case 0:
-                    result = String.valueOf(exists.fileExist(filePath));
-                    break;
-                case 1:
-                    result = String.valueOf(exists.directoryExist(filePath));
-                    break;
-                case 2:
-                    result = String.valueOf(exists.directoryHasFiles(filePath));
-                    break;
-                case 3:
-                    result = exists.listDir(filePath);
-                    break;
+            exists = ExistsStubs.get(rmiServer);
+            try {
+                result = query(exists, type, filePath);
+            } catch (RemoteException e) {
+                // 服务器可能已重启，重新查找后再试一次
+                ExistsStubs.invalidate(rmiServer, exists);
+                exists = ExistsStubs.get(rmiServer);
+                result = query(exists, type, filePath);
             }
             sr.setResponseData(result, null);
             sr.setDataEncoding(SampleResult.TEXT);
@@ -87,4 +104,179 @@ public class FileExists extends AbstractJavaSamplerClient {
         }
         return sr;
     }
+
+    /**
+     * Blocks on the server until the condition holds. The sample starts when the call is
+     * made and lasts the wait measured by the server, from the arrival of the call until
+     * the condition held, so it does not depend on the clocks of the two hosts. The
+     * response also gives the round trip of the call minus that wait.
+     * Servers that do not implement {@link WaitingExists} fail the sample.
+     */
+    private SampleResult runWait(SampleResult sr, String rmiServer, int type, String filePath, long waitTimeout) {
+        sr.setSampleLabel("等待" + queryTypes[type]);
+        sr.setSamplerData("等待" + filePath + queryTypes[type] + ", 超时" + waitTimeout + "ms");
+        long start = System.currentTimeMillis();
+        try {
+            Exists exists = ExistsStubs.get(rmiServer);
+            if (!(exists instanceof WaitingExists)) {
+                return unsupportedWait(sr, start);
+            }
+            start = System.currentTimeMillis();
+            long waited;
+            try {
+                waited = ((WaitingExists) exists).waitFor(filePath, type, waitTimeout);
+            } catch (RemoteException e) {
+                if (!(e instanceof NoSuchObjectException || e instanceof ConnectException)) {
+                    // 其它异常重试会再等一个超时
+                    throw e;
+                }
+                // 服务器已重启，stub失效
+                ExistsStubs.invalidate(rmiServer, exists);
+                exists = ExistsStubs.get(rmiServer);
+                if (!(exists instanceof WaitingExists)) {
+                    return unsupportedWait(sr, start);
+                }
+                start = System.currentTimeMillis();
+                waited = ((WaitingExists) exists).waitFor(filePath, type, waitTimeout);
+            }
+            long roundTrip = System.currentTimeMillis() - start;
+            if (waited < 0) {
+                setTime(sr, start, waitTimeout);
+                sr.setResponseData("false", null);
+                sr.setResponseMessage("等待超时");
+                sr.setSuccessful(false);
+            } else {
+                setTime(sr, start, waited);
+                sr.setResponseData("true\nwaited=" + waited + "ms rtt=" + Math.max(0, roundTrip - waited) + "ms", null);
+                sr.setSuccessful(true);
+            }
+            sr.setDataEncoding(SampleResult.TEXT);
+        } catch (Exception e) {
+            setTime(sr, start, System.currentTimeMillis() - start);
+            LOG.warn("Wait failed", e);
+            sr.setResponseMessage("远程rmi服务器连接错误");
+            sr.setSuccessful(false);
+        }
+        return sr;
+    }
+
+    private static SampleResult unsupportedWait(SampleResult sr, long start) {
+        // 旧服务器没有等待接口
+        setTime(sr, start, System.currentTimeMillis() - start);
+        sr.setResponseMessage("rmi服务器不支持等待(WaitingExists)，请升级服务器或将waitTimeout设为0");
+        sr.setSuccessful(false);
+        return sr;
+    }
+
+    private static void setTime(SampleResult sr, long start, long elapsed) {
+        // 时间戳可能被配置为结束时间
+        sr.setStampAndTime(sr.isStampedAtStart() ? start : start + elapsed, elapsed);
+    }
+
+    private static String query(Exists exists, int type, String filePath) throws RemoteException {
+        switch (type){
+            case 0:
+                return String.valueOf(exists.fileExist(filePath));
+            case 1:
+                return String.valueOf(exists.directoryExist(filePath));
+            case 2:
+                return String.valueOf(exists.directoryHasFiles(filePath));
+            default:
+                return exists.listDir(filePath);
+        }
+    }
+
+    /**
+     * Checks every path of the pathList file, one path per line, in one remote call
+     * if the server supports {@link BatchExists}. The response lists the count of
+     * matching paths and the paths that do not match.
+     */
+    private SampleResult runBatch(SampleResult sr, String rmiServer, int type, String pathListName) {
+        String[] paths;
+        try {
+            paths = loadPathList(pathListName);
+        } catch (IOException e) {
+            sr.setResponseMessage("读取路径列表失败: " + e);
+            sr.setSuccessful(false);
+            return sr;
+        }
+        sr.setSampleLabel("批量请求查看" + queryTypes[type]);
+        sr.setSamplerData("批量请求查看" + paths.length + "个路径" + queryTypes[type] + ", " + pathListName);
+
+        sr.sampleStart();
+        try {
+            Exists exists = ExistsStubs.get(rmiServer);
+            BitSet found;
+            try {
+                found = queryBatch(exists, type, paths);
+            } catch (RemoteException e) {
+                ExistsStubs.invalidate(rmiServer, exists);
+                exists = ExistsStubs.get(rmiServer);
+                found = queryBatch(exists, type, paths);
+            }
+            sr.sampleEnd();
+            StringBuilder sb = new StringBuilder();
+            sb.append(found.cardinality()).append('/').append(paths.length).append('\n');
+            for (int i = 0; i < paths.length; i++) {
+                if (!found.get(i)) {
+                    sb.append(paths[i]).append('\n');
+                }
+            }
+            sr.setResponseData(sb.toString(), null);
+            sr.setDataEncoding(SampleResult.TEXT);
+            sr.setSuccessful(true);
+        } catch (Exception e) {
+            if (sr.getEndTime() == 0) {
+                sr.sampleEnd();
+            }
+            LOG.warn("Batch query failed", e);
+            sr.setResponseMessage("远程rmi服务器连接错误");
+            sr.setSuccessful(false);
+        }
+        return sr;
+    }
+
+    private static BitSet queryBatch(Exists exists, int type, String[] paths) throws RemoteException {
+        if (exists instanceof BatchExists) {
+            BatchExists batch = (BatchExists) exists;
+            switch (type) {
+                case 0:
+                    return batch.filesExist(paths);
+                case 1:
+                    return batch.directoriesExist(paths);
+                default:
+                    return batch.directoriesHaveFiles(paths);
+            }
+        }
+        // 旧服务器没有批量接口，逐个查询
+        BitSet found = new BitSet(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            if (Boolean.parseBoolean(query(exists, type, paths[i]))) {
+                found.set(i);
+            }
+        }
+        return found;
+    }
+
+    private String[] loadPathList(String name) throws IOException {
+        if (name.equals(pathListFile)) {
+            return pathList;
+        }
+        List<String> paths = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(name), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    paths.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        pathList = paths.toArray(new String[paths.size()]);
+        pathListFile = name;
+        return pathList;
+    }
 }
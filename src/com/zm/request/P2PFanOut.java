@@ -0,0 +1,325 @@
+package com.zm.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.FrameFormat;
+import com.zm.pool.ConnectionPool;
+import com.zm.pool.PooledExchange;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Sends the same P2P request to several peers at once, as one logical user querying
+ * many peers in parallel.
+ *
+ * "targets" lists host:port pairs separated by commas, spaces or new lines. The request
+ * is sent to every target concurrently over the shared connection pool (see
+ * {@link PooledExchange}) and the length-framed responses are read as for P2PPooledTCP;
+ * the first line of the template gives the number of responses per target.
+ *
+ * The exchanges run on an executor shared by all JMeter threads, of "p2p.fanout.threads"
+ * threads (default 200); a sample waits at most "timeout" ms for all of them. Every
+ * target is reported as a sub-result, timed from when its exchange left the executor
+ * queue; the time it waited there is its idle time. When JMeter threads times targets
+ * exceed the executor threads, exchanges wait in the queue and a warning is logged.
+ * With "until" = "last" the sample time and latency run until the last response and the
+ * sample fails if any target fails; with "first" they run until the first successful
+ * response and the sample fails only if every target fails; the slower targets are still
+ * waited for, to report them.
+ */
+public class P2PFanOut extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private static final int poolThreads = JMeterUtils.getPropDefault("p2p.fanout.threads", 200); // $NON_NLS-1$
+
+    private static ThreadPoolExecutor executor;
+
+    // 只提醒一次线程不够
+    private static volatile boolean queueWarned;
+
+    private String lastTemplate;
+    private FrameFormat frameFormat;
+    private int responses;
+
+    private String lastTargets;
+    private String[] hosts;
+    private int[] ports;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("targets", "127.0.0.1:9000,127.0.0.1:9001");
+        params.addArgument("timeout", "10000");
+        params.addArgument("until", "last");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public void setupTest(JavaSamplerContext context) {
+        try {
+            prepare(context.getParameter("template", ""), context.getParameter("targets", ""));
+            for (int i = 0; i < hosts.length; i++) {
+                ConnectionPool.getInstance().prewarm(hosts[i], ports[i]);
+            }
+        } catch (Exception e) {
+            LOG.warn("Cannot pre-warm connections: " + e);
+        }
+    }
+
+    /**
+     * @return the executor shared by all fan-out samplers, created on first use
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(poolThreads, poolThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "P2PFanOut-" + count.incrementAndGet()); // $NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // 空闲时不占用线程
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult parent = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        String label = sampler != null ? sampler.getName() : "P2PFanOut";
+        parent.setSampleLabel(label);
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+        String template = context.getParameter("template", "");
+        parent.setSamplerData(template);
+        boolean untilFirst = "first".equalsIgnoreCase(context.getParameter("until", "last").trim());
+        long timeout = context.getLongParameter("timeout", 10000);
+
+        long startMillis = System.currentTimeMillis();
+        List<Future<SampleResult>> futures = new ArrayList<Future<SampleResult>>();
+        List<Exchange> exchanges = new ArrayList<Exchange>();
+        try {
+            prepare(template, context.getParameter("targets", ""));
+            byte[] data = MessageTemplateCache.getInstance().encode(template);
+            startMillis = System.currentTimeMillis();
+            ThreadPoolExecutor pool = getExecutor();
+            for (int i = 0; i < hosts.length; i++) {
+                Exchange exchange = new Exchange(label + "-" + hosts[i] + ":" + ports[i],
+                        hosts[i], ports[i], (int) timeout, data, responses, frameFormat, startMillis);
+                exchanges.add(exchange);
+                futures.add(pool.submit(exchange));
+            }
+            if (!queueWarned && !pool.getQueue().isEmpty()) {
+                queueWarned = true;
+                LOG.warn("Fan-out exchanges wait for one of the " + poolThreads + " executor threads,"
+                        + " the targets are not queried in parallel; raise p2p.fanout.threads");
+            }
+        } catch (Exception e) {
+            parent.setStampAndTime(startMillis, System.currentTimeMillis() - startMillis);
+            parent.setSuccessful(false);
+            parent.setResponseMessage(e.toString());
+            return parent;
+        }
+
+        long deadline = System.nanoTime() + timeout * 1000000;
+        int ok = 0;
+        long firstEnd = Long.MAX_VALUE;
+        long lastEnd = startMillis;
+        StringBuilder summary = new StringBuilder();
+        SampleResult[] children = new SampleResult[futures.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            SampleResult child = collect(futures.get(i), exchanges.get(i), deadline, startMillis, timeout);
+            long end = child.getEndTime();
+            lastEnd = Math.max(lastEnd, end);
+            if (child.isSuccessful()) {
+                ok++;
+                firstEnd = Math.min(firstEnd, end);
+            } else {
+                summary.append(hosts[i]).append(':').append(ports[i]).append(' ').append(child.getResponseMessage()).append('\n');
+            }
+            children[i] = child;
+        }
+
+        long elapsed = (untilFirst && ok > 0 ? firstEnd : lastEnd) - startMillis;
+        parent.setStampAndTime(parent.isStampedAtStart() ? startMillis : startMillis + elapsed, elapsed);
+        parent.setLatency(elapsed);
+        for (SampleResult child : children) {
+            // addSubResult会把结束时间推到最后一个子结果
+            parent.addRawSubResult(child);
+        }
+        parent.setResponseData(ok + "/" + futures.size() + " targets answered\n" + summary, null);
+        parent.setDataType(SampleResult.TEXT);
+        boolean success = untilFirst ? ok > 0 : ok == futures.size();
+        parent.setSuccessful(success);
+        if (success) {
+            parent.setResponseCodeOK();
+            parent.setResponseMessageOK();
+        } else {
+            parent.setResponseMessage((futures.size() - ok) + " of " + futures.size() + " targets failed");
+        }
+        return parent;
+    }
+
+    /**
+     * Waits for one exchange until the deadline of the sample.
+     */
+    private static SampleResult collect(Future<SampleResult> future, Exchange exchange, long deadline,
+                                        long startMillis, long timeout) {
+        String label = exchange.label;
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 还在排队或在读，读超时后连接会被丢弃
+            future.cancel(false);
+            long now = System.currentTimeMillis();
+            long started = exchange.startMillis;
+            SampleResult child;
+            if (started == 0) {
+                child = failed(label, now, 0, "Still queued after " + (now - startMillis)
+                        + " ms, p2p.fanout.threads is too small");
+                child.setIdleTime(now - startMillis);
+            } else {
+                child = failed(label, started, now - started, "No response within " + timeout + " ms");
+                child.setIdleTime(started - startMillis);
+            }
+            return child;
+        } catch (ExecutionException e) {
+            LOG.warn("Fan-out exchange failed", e.getCause());
+            return failed(label, startMillis, System.currentTimeMillis() - startMillis, e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return failed(label, startMillis, System.currentTimeMillis() - startMillis, e.toString());
+        }
+    }
+
+    private static SampleResult failed(String label, long start, long elapsed, String message) {
+        SampleResult child = new SampleResult();
+        child.setSampleLabel(label);
+        child.setStampAndTime(child.isStampedAtStart() ? start : start + elapsed, elapsed);
+        child.setSuccessful(false);
+        child.setResponseMessage(message);
+        return child;
+    }
+
+    /**
+     * The exchange with one target, run on the shared executor.
+     */
+    private static final class Exchange implements Callable<SampleResult> {
+        private final String label;
+        private final String host;
+        private final int port;
+        private final int timeout;
+        private final byte[] data;
+        private final int responses;
+        private final FrameFormat format;
+        private final long submitMillis;
+
+        // 离开队列的时间，0表示还在排队
+        private volatile long startMillis;
+
+        Exchange(String label, String host, int port, int timeout, byte[] data, int responses, FrameFormat format,
+                 long submitMillis) {
+            this.label = label;
+            this.host = host;
+            this.port = port;
+            this.timeout = timeout;
+            this.data = data;
+            this.responses = responses;
+            this.format = format;
+            this.submitMillis = submitMillis;
+        }
+
+        @Override
+        public SampleResult call() {
+            startMillis = System.currentTimeMillis();
+            SampleResult child = new SampleResult();
+            child.setSampleLabel(label);
+            // 在队列中等待的时间单独报告，不计入目标的时间
+            child.setIdleTime(startMillis - submitMillis);
+            try {
+                byte[] response = PooledExchange.exchange(host, port, timeout, data, responses, format, child);
+                child.setResponseData(ResponseFormat.toResponseBytes(response));
+                child.setDataType(SampleResult.TEXT);
+                child.setResponseCodeOK();
+                child.setResponseMessageOK();
+                child.setSuccessful(true);
+            } catch (Exception e) {
+                child.setSuccessful(false);
+                child.setResponseMessage(e.toString());
+            }
+            return child;
+        }
+    }
+
+    private void prepare(String template, String targets) {
+        if (!template.equals(lastTemplate)) {
+            FrameFormat format = FrameFormat.fromProperties();
+            if (format == null) {
+                format = FrameFormat.fromTemplate(template);
+            }
+            if (format == null) {
+                throw new IllegalArgumentException("Fan-out needs a len field in the header or the p2p.tcp.lengthField* properties");
+            }
+            frameFormat = format;
+            responses = 1;
+            try {
+                //从第一行中得到响应的个数
+                responses = Math.max(1, Integer.parseInt(template.split("\n")[0].trim()));
+            } catch (NumberFormatException e) {
+                // 默认一个响应
+            }
+            lastTemplate = template;
+        }
+        if (!targets.equals(lastTargets)) {
+            List<String> list = new ArrayList<String>();
+            for (String target : targets.split("[,\\s]+")) {
+                if (target.length() > 0) {
+                    list.add(target);
+                }
+            }
+            if (list.isEmpty()) {
+                throw new IllegalArgumentException("No targets");
+            }
+            String[] h = new String[list.size()];
+            int[] p = new int[list.size()];
+            for (int i = 0; i < h.length; i++) {
+                String target = list.get(i);
+                int colon = target.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Target without port: " + target);
+                }
+                h[i] = target.substring(0, colon);
+                p[i] = Integer.parseInt(target.substring(colon + 1));
+            }
+            hosts = h;
+            ports = p;
+            lastTargets = targets;
+        }
+    }
+}
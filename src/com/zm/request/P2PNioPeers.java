@@ -0,0 +1,215 @@
+package com.zm.request;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.FrameFormat;
+import com.zm.nio.NioConnection;
+import com.zm.nio.NioEngine;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Simulates many P2P peers from one JMeter thread.
+ *
+ * The sampler keeps "connections" non-blocking connections to the server, driven by the
+ * selector threads of the {@link NioEngine} instead of one thread per socket. Each sample
+ * sends the template once on every connection and waits up to "timeout" ms for all
+ * responses, which are split into messages with {@link FrameFormat}. Every connection
+ * is reported as a sub-result; connections that fail or time out are reopened on the
+ * next sample, and all connections are reopened when the server, port or frame format changes.
+ */
+public class P2PNioPeers extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private final List<NioConnection> peers = new ArrayList<NioConnection>();
+
+    private String lastTemplate;
+    private FrameFormat frameFormat;
+
+    // 当前连接使用的地址和分帧方式
+    private String connectedTo;
+    private FrameFormat connectedFormat;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("connections", "100");
+        params.addArgument("timeout", "10000");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult parent = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        String label = sampler != null ? sampler.getName() : "P2PNioPeers";
+        parent.setSampleLabel(label);
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+
+        String template = context.getParameter("template", "");
+        int count = Math.max(1, context.getIntParameter("connections", 100));
+        long timeout = context.getLongParameter("timeout", 10000);
+
+        parent.sampleStart();
+        byte[] data;
+        try {
+            prepare(template);
+            data = MessageTemplateCache.getInstance().encode(template);
+            connect(context.getParameter("server"), context.getIntParameter("port", 0), count);
+        } catch (Exception e) {
+            parent.sampleEnd();
+            parent.setSuccessful(false);
+            parent.setResponseMessage(e.toString());
+            return parent;
+        }
+        parent.setSamplerData(template);
+
+        final CountDownLatch done = new CountDownLatch(count);
+        final SampleResult[] children = new SampleResult[count];
+        for (int i = 0; i < count; i++) {
+            final SampleResult child = new SampleResult();
+            child.setSampleLabel(label + "-" + i);
+            children[i] = child;
+            child.sampleStart();
+            try {
+                peers.get(i).send(data, new NioConnection.Listener() {
+                    @Override
+                    public void onResponse(byte[] frame) {
+                        synchronized (child) {
+                            if (child.getEndTime() != 0) {
+                                return;
+                            }
+                            child.latencyEnd();
+                            child.sampleEnd();
+                            child.setResponseData(ResponseFormat.toResponseBytes(frame, 0, frame.length));
+                            child.setDataType(SampleResult.TEXT);
+                            child.setResponseCodeOK();
+                            child.setResponseMessageOK();
+                            child.setSuccessful(true);
+                        }
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        synchronized (child) {
+                            if (child.getEndTime() != 0) {
+                                return;
+                            }
+                            child.sampleEnd();
+                            child.setSuccessful(false);
+                            child.setResponseMessage(e.toString());
+                        }
+                        done.countDown();
+                    }
+                });
+            } catch (IllegalStateException e) {
+                child.sampleEnd();
+                child.setSuccessful(false);
+                child.setResponseMessage(e.getMessage());
+                done.countDown();
+            }
+        }
+
+        boolean complete;
+        try {
+            complete = done.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete = false;
+        }
+
+        int failed = 0;
+        for (int i = 0; i < count; i++) {
+            NioConnection peer = peers.get(i);
+            SampleResult child = children[i];
+            synchronized (child) {
+                if (child.getEndTime() == 0) {
+                    // 超时的连接直接关闭，迟到的响应不会记到下一次采样
+                    peer.close();
+                    child.sampleEnd();
+                    child.setSuccessful(false);
+                    child.setResponseMessage("Timeout after " + timeout + " ms");
+                }
+                if (!child.isSuccessful()) {
+                    failed++;
+                }
+            }
+        }
+        parent.sampleEnd();
+        for (SampleResult child : children) {
+            parent.addSubResult(child);
+        }
+        parent.setSuccessful(complete && failed == 0);
+        if (failed == 0) {
+            parent.setResponseCodeOK();
+        }
+        parent.setResponseMessage((count - failed) + " of " + count + " peers answered");
+        return parent;
+    }
+
+    private void prepare(String template) {
+        if (template.equals(lastTemplate)) {
+            return;
+        }
+        frameFormat = FrameFormat.fromProperties();
+        if (frameFormat == null) {
+            frameFormat = FrameFormat.fromTemplate(template);
+        }
+        if (frameFormat == null) {
+            throw new IllegalArgumentException("NIO peers need a len field in the header or the p2p.tcp.lengthField* properties");
+        }
+        lastTemplate = template;
+    }
+
+    private void connect(String server, int port, int count) throws IOException {
+        String target = server + ":" + port;
+        if (!target.equals(connectedTo) || !frameFormat.equals(connectedFormat)) {
+            closePeers();
+            connectedTo = target;
+            connectedFormat = frameFormat;
+        }
+        InetSocketAddress address = new InetSocketAddress(server, port);
+        NioEngine engine = NioEngine.getInstance();
+        for (int i = 0; i < count; i++) {
+            if (i == peers.size()) {
+                peers.add(engine.connect(address, frameFormat));
+            } else if (peers.get(i).isClosed()) {
+                peers.set(i, engine.connect(address, frameFormat));
+            }
+        }
+        while (peers.size() > count) {
+            peers.remove(peers.size() - 1).close();
+        }
+    }
+
+    @Override
+    public void teardownTest(JavaSamplerContext context) {
+        closePeers();
+        connectedTo = null;
+        connectedFormat = null;
+    }
+
+    private void closePeers() {
+        for (NioConnection peer : peers) {
+            peer.close();
+        }
+        peers.clear();
+    }
+}
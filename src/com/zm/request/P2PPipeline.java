@@ -0,0 +1,252 @@
+package com.zm.request;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.CorrelationField;
+import com.zm.frame.FrameFormat;
+import com.zm.frame.FrameReader;
+import com.zm.message.Message;
+import com.zm.template.FieldValueRewriter;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Sends P2P requests pipelined over one persistent TCP connection.
+ *
+ * Each sample writes "requests" messages built from the template, keeping at most
+ * "depth" of them in flight, and reads one length-framed response per request
+ * (see {@link FrameFormat}). If "correlationField" names a numeric [lhead]/[head]
+ * field, every request gets its own value in that field and responses are matched
+ * by it, in any order; otherwise responses are matched in request order.
+ *
+ * Every request is reported as a sub-result with its own timing; the sample itself
+ * covers the whole batch and fails if any request fails.
+ * The connection is kept for the next sample and closed after an error.
+ */
+public class P2PPipeline extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private String connectedTo;
+
+    private final FrameReader frameReader = new FrameReader();
+
+    // 模板不变时复用解析结果
+    private String lastTemplate;
+    private String lastCorrelationName;
+    private FrameFormat frameFormat;
+    private CorrelationField correlationField;
+    private FieldValueRewriter rewriter;
+
+    private long nextValue = 1;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("timeout", "10000");
+        params.addArgument("requests", "10");
+        params.addArgument("depth", "10");
+        params.addArgument("correlationField", "");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult parent = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        String label = sampler != null ? sampler.getName() : "P2PPipeline";
+        parent.setSampleLabel(label);
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+
+        String template = context.getParameter("template", "");
+        int count = Math.max(1, context.getIntParameter("requests", 10));
+        int depth = Math.max(1, context.getIntParameter("depth", 10));
+        String correlationName = context.getParameter("correlationField", "").trim();
+
+        parent.sampleStart();
+        try {
+            prepare(template, correlationName);
+            if (correlationField != null) {
+                // 值在1..maxValue之间循环，在途请求不能超过这个数
+                depth = (int) Math.min(depth, correlationField.maxValue());
+            }
+            connect(context.getParameter("server"), context.getIntParameter("port", 0),
+                    context.getIntParameter("timeout", 10000));
+        } catch (Exception e) {
+            parent.sampleEnd();
+            parent.setSuccessful(false);
+            parent.setResponseMessage(e.toString());
+            return parent;
+        }
+
+        SampleResult[] children = new SampleResult[count];
+        // 按关联字段值或发送顺序找到请求
+        Map<Long, Integer> byValue = new HashMap<Long, Integer>();
+        ArrayDeque<Integer> inOrder = new ArrayDeque<Integer>();
+        int sent = 0;
+        int received = 0;
+        String error = null;
+        try {
+            while (received < count) {
+                if (sent < count && sent - received < depth) {
+                    while (sent < count && sent - received < depth) {
+                        children[sent] = send(label + "-" + sent, template, sent, byValue, inOrder);
+                        sent++;
+                    }
+                    out.flush();
+                }
+                frameReader.reset();
+                int length = frameReader.readFrame(in, frameFormat);
+                Integer index;
+                if (correlationField != null) {
+                    long value = correlationField.read(frameReader.getBuffer(), 0, length);
+                    index = byValue.remove(value);
+                    if (index == null) {
+                        // 不再等待到超时
+                        throw new IOException("Response with unknown " + correlationField.getName() + "=" + value);
+                    }
+                } else {
+                    index = inOrder.poll();
+                }
+                SampleResult child = children[index];
+                child.latencyEnd();
+                child.sampleEnd();
+                child.setResponseData(ResponseFormat.toResponseBytes(frameReader.getBuffer(), 0, length));
+                child.setDataType(SampleResult.TEXT);
+                child.setResponseCodeOK();
+                child.setResponseMessageOK();
+                child.setSuccessful(true);
+                received++;
+            }
+        } catch (Exception e) {
+            error = e.toString();
+            LOG.warn("Pipeline failed after " + received + " of " + count + " responses", e);
+            // 连接状态未知，下次重新连接
+            close();
+        }
+
+        for (int i = 0; i < sent; i++) {
+            SampleResult child = children[i];
+            if (child.getEndTime() == 0) {
+                child.sampleEnd();
+                child.setSuccessful(false);
+                child.setResponseMessage(error != null ? error : "No response");
+            }
+        }
+        parent.sampleEnd();
+        for (int i = 0; i < sent; i++) {
+            parent.addSubResult(children[i]);
+        }
+        parent.setSuccessful(error == null && received == count);
+        if (error == null) {
+            parent.setResponseCodeOK();
+            parent.setResponseMessage(received + " responses");
+        } else {
+            parent.setResponseMessage(error);
+        }
+        return parent;
+    }
+
+    private void prepare(String template, String correlationName) {
+        if (template.equals(lastTemplate) && correlationName.equals(lastCorrelationName)) {
+            return;
+        }
+        lastTemplate = null;
+        frameFormat = FrameFormat.fromProperties();
+        if (frameFormat == null) {
+            frameFormat = FrameFormat.fromTemplate(template);
+        }
+        if (frameFormat == null) {
+            throw new IllegalArgumentException("Pipelining needs a len field in the header or the p2p.tcp.lengthField* properties");
+        }
+        correlationField = null;
+        rewriter = null;
+        if (correlationName.length() > 0) {
+            correlationField = CorrelationField.fromMessage(new Message(template), correlationName);
+            rewriter = FieldValueRewriter.forField(template, correlationName);
+            if (correlationField == null || rewriter == null) {
+                throw new IllegalArgumentException("No fixed position integer header field " + correlationName);
+            }
+        }
+        LOG.info("Pipelining with " + frameFormat + (correlationField != null ? ", " + correlationField : ", in order"));
+        lastTemplate = template;
+        lastCorrelationName = correlationName;
+    }
+
+    private SampleResult send(String label, String template, int index,
+                              Map<Long, Integer> byValue, ArrayDeque<Integer> inOrder) throws IOException {
+        String text = template;
+        if (correlationField != null) {
+            long value = nextValue;
+            nextValue = value >= correlationField.maxValue() ? 1 : value + 1;
+            text = rewriter.withValue(String.valueOf(value));
+            byValue.put(value, index);
+        } else {
+            inOrder.add(index);
+        }
+        byte[] data = MessageTemplateCache.getInstance().encode(text);
+
+        SampleResult child = new SampleResult();
+        child.setSampleLabel(label);
+        child.setSamplerData(text);
+        child.sampleStart();
+        out.write(data);
+        return child;
+    }
+
+    private void connect(String server, int port, int timeout) throws IOException {
+        String target = server + ":" + port;
+        if (socket != null && target.equals(connectedTo)) {
+            return;
+        }
+        close();
+        Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(timeout);
+        s.connect(new InetSocketAddress(server, port), timeout);
+        socket = s;
+        in = s.getInputStream();
+        out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+        connectedTo = target;
+    }
+
+    private void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Close failed", e);
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+        connectedTo = null;
+    }
+
+    @Override
+    public void teardownTest(JavaSamplerContext context) {
+        close();
+    }
+}
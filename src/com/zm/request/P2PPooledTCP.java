@@ -0,0 +1,108 @@
+package com.zm.request;
+
+import java.io.IOException;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.FrameFormat;
+import com.zm.pool.ConnectionPool;
+import com.zm.pool.PooledExchange;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Sends a P2P request over a connection of the shared {@link ConnectionPool} and reads
+ * the length-framed responses (see {@link FrameFormat}); the first line of the template
+ * gives the number of responses, as for P2PTCP.
+ *
+ * The pool is pre-warmed when the first thread starts. The sample is timed as
+ * described in {@link PooledExchange}.
+ */
+public class P2PPooledTCP extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private String lastTemplate;
+    private FrameFormat frameFormat;
+    private int responses;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("timeout", "10000");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public void setupTest(JavaSamplerContext context) {
+        try {
+            ConnectionPool.getInstance().prewarm(context.getParameter("server"), context.getIntParameter("port", 0));
+        } catch (IOException e) {
+            LOG.warn("Cannot pre-warm connections: " + e);
+        }
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult result = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        result.setSampleLabel(sampler != null ? sampler.getName() : "P2PPooledTCP");
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+        String template = context.getParameter("template", "");
+        result.setSamplerData(template);
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            prepare(template);
+            byte[] data = MessageTemplateCache.getInstance().encode(template);
+            byte[] response = PooledExchange.exchange(context.getParameter("server"), context.getIntParameter("port", 0),
+                    context.getIntParameter("timeout", 10000), data, responses, frameFormat, result);
+            result.setResponseData(ResponseFormat.toResponseBytes(response));
+            result.setDataType(SampleResult.TEXT);
+            result.setResponseCodeOK();
+            result.setResponseMessageOK();
+            result.setSuccessful(true);
+        } catch (Exception e) {
+            if (result.getEndTime() == 0) {
+                // 没有开始收发，例如模板错误
+                setTime(result, startMillis, System.currentTimeMillis() - startMillis);
+            }
+            result.setSuccessful(false);
+            result.setResponseMessage(e.toString());
+        }
+        return result;
+    }
+
+    private static void setTime(SampleResult result, long start, long elapsed) {
+        result.setStampAndTime(result.isStampedAtStart() ? start : start + elapsed, elapsed);
+    }
+
+    private void prepare(String template) {
+        if (template.equals(lastTemplate)) {
+            return;
+        }
+        frameFormat = FrameFormat.fromProperties();
+        if (frameFormat == null) {
+            frameFormat = FrameFormat.fromTemplate(template);
+        }
+        if (frameFormat == null) {
+            throw new IllegalArgumentException("Pooled connections need a len field in the header or the p2p.tcp.lengthField* properties");
+        }
+        responses = 1;
+        try {
+            //从第一行中得到响应的个数
+            responses = Math.max(1, Integer.parseInt(template.split("\n")[0].trim()));
+        } catch (NumberFormatException e) {
+            // 默认一个响应
+        }
+        lastTemplate = template;
+    }
+}
@@ -0,0 +1,290 @@
+package com.zm.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import com.zm.capture.CaptureSource;
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.FrameFormat;
+import com.zm.pool.ConnectionPool;
+import com.zm.pool.PooledConnection;
+import com.zm.pool.PooledExchange;
+import com.zm.stats.ArrivalSchedule;
+import kg.apc.jmeter.samplers.P2PUDP;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.protocol.tcp.sampler.ReadException;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Replays the requests of a capture written by "Save body to file" (see
+ * {@link com.zm.capture.CaptureWriter}) over TCP or UDP, one record per sample.
+ *
+ * All threads replaying the same capture take its records in turn from a shared
+ * {@link CaptureSource}, which streams the capture from its memory-mapped parts. With
+ * "speed" 1 every request is sent at its recorded time relative to the first one, with
+ * 10 ten times faster, with 0 as fast as possible; use enough threads to keep up. After
+ * the last record the thread stops, unless "loop" is true.
+ *
+ * The recorded response is the expected result: "compare" is "exact" (same bytes),
+ * "length" (same length) or "none". Over TCP the response is read as length-framed
+ * messages if the "p2p.tcp.lengthField*" properties are set, otherwise as many bytes
+ * as were recorded.
+ *
+ * Requests are written and responses read by {@link P2PTCP} and {@link P2PUDP}, so
+ * replayed traffic is traced, timed in phases and scheduled like that of the P2P
+ * samplers. As with TCPSampler and UDPSampler, the sockets are not theirs: TCP
+ * connections come from the shared {@link ConnectionPool}, UDP uses one socket per thread.
+ *
+ * The record number and how late the request was sent (ms) are published as the
+ * variables "p2p.replay.record" and "p2p.replay.late".
+ */
+public class P2PReplay extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private static final int MAX_DATAGRAM = 65536;
+
+    private final P2PTCP tcp = new P2PTCP();
+    private final P2PUDP udp = new P2PUDP();
+    private final Replayed replayed = new Replayed();
+
+    private String captureName;
+    private CaptureSource source;
+
+    private byte[] request = new byte[4096];
+
+    private DatagramSocket socket;
+    private String connectedTo;
+    private byte[] datagram;
+
+    public P2PReplay() {
+        // 没有配置长度字段时按记录的字节数读取
+        tcp.setFrameFormat(FrameFormat.fromProperties());
+    }
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("capture", "");
+        params.addArgument("protocol", "tcp");
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("timeout", "10000");
+        params.addArgument("speed", "1");
+        params.addArgument("loop", "false");
+        params.addArgument("compare", "exact");
+        return params;
+    }
+
+    @Override
+    public void setupTest(JavaSamplerContext context) {
+        // 每次测试从共享的新回放源开始
+        source = null;
+        if ("tcp".equalsIgnoreCase(context.getParameter("protocol", "tcp"))) {
+            try {
+                ConnectionPool.getInstance().prewarm(context.getParameter("server"), context.getIntParameter("port", 0));
+            } catch (IOException e) {
+                LOG.warn("Cannot pre-warm connections: " + e);
+            }
+        }
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult result = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        result.setSampleLabel(sampler != null ? sampler.getName() : "P2PReplay");
+
+        long n;
+        try {
+            n = getSource(context.getParameter("capture", "").trim()).next(Boolean.parseBoolean(context.getParameter("loop", "false")));
+        } catch (IOException e) {
+            result.setSuccessful(false);
+            result.setResponseMessage(e.toString());
+            return result;
+        }
+        if (n < 0) {
+            result.setSuccessful(true);
+            result.setResponseMessage("End of capture");
+            result.setStopThread(true);
+            return result;
+        }
+
+        long record = source.record(n);
+        double speed = Double.parseDouble(context.getParameter("speed", "1"));
+        long late = 0;
+        if (speed > 0) {
+            late = waitUntil(source.scheduledNanos(n, speed));
+        }
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (vars != null) {
+            vars.put("p2p.replay.record", Long.toString(record)); // $NON-NLS-1$
+            vars.put("p2p.replay.late", Long.toString(late / 1000000)); // $NON-NLS-1$
+        }
+
+        String server = context.getParameter("server");
+        int port = context.getIntParameter("port", 0);
+        int timeout = context.getIntParameter("timeout", 10000);
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            ByteBuffer req = source.request(record);
+            ByteBuffer expected = source.response(record);
+            result.setSamplerData("#" + record + " recorded at " + source.timeStamp(record) + ", "
+                    + req.remaining() + " bytes, late " + late / 1000000 + " ms");
+            int length = req.remaining();
+            if (request.length < length) {
+                request = new byte[Math.max(length, request.length * 2)];
+            }
+            req.get(request, 0, length);
+
+            if ("udp".equalsIgnoreCase(context.getParameter("protocol", "tcp"))) {
+                connect(server, port);
+                socket.setSoTimeout(timeout);
+                startMillis = System.currentTimeMillis();
+                start = System.nanoTime();
+                ByteBuffer data = udp.encode(ByteBuffer.wrap(request, 0, length));
+                socket.send(new DatagramPacket(data.array(), data.arrayOffset() + data.position(), data.remaining()));
+                DatagramPacket packet = new DatagramPacket(datagram, datagram.length);
+                socket.receive(packet);
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                setTime(result, startMillis, elapsed);
+                result.setLatency(elapsed);
+                byte[] response = Arrays.copyOf(datagram, packet.getLength());
+                result.setResponseData(udp.decode(response));
+                check(result, context, expected, response);
+            } else {
+                replayed.length = length;
+                replayed.responseLength = expected.remaining();
+                String response = PooledExchange.exchange(server, port, timeout, replayed, result);
+                result.setResponseData(response, tcp.getCharset());
+                check(result, context, expected, ResponseFormat.getRawResponse(result));
+            }
+        } catch (Exception e) {
+            if (result.getEndTime() == 0) {
+                // TCP的收发失败时已计时
+                setTime(result, startMillis, (System.nanoTime() - start) / 1000000);
+            }
+            Throwable failure = e;
+            if (e instanceof ReadException) {
+                result.setResponseData(((ReadException) e).getPartialResponse(), tcp.getCharset());
+                failure = e.getCause() != null ? e.getCause() : e;
+            } else {
+                // UDP超时时不会解码
+                ArrivalSchedule.failed(System.nanoTime(), vars);
+            }
+            result.setSuccessful(false);
+            result.setResponseMessage(failure.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Compares the response with the recorded one.
+     */
+    private static void check(SampleResult result, JavaSamplerContext context, ByteBuffer expected, byte[] data) {
+        result.setDataType(SampleResult.TEXT);
+        result.setResponseCodeOK();
+        String compare = context.getParameter("compare", "exact").trim();
+        String failure = null;
+        if (!"none".equalsIgnoreCase(compare) && expected.remaining() != data.length) {
+            failure = "Response of " + data.length + " bytes, recorded " + expected.remaining();
+        } else if ("exact".equalsIgnoreCase(compare)) {
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != expected.get(expected.position() + i)) {
+                    failure = "Response differs from the recorded one at byte " + i;
+                    break;
+                }
+            }
+        }
+        if (failure != null) {
+            result.setSuccessful(false);
+            result.setResponseMessage(failure);
+        } else {
+            result.setSuccessful(true);
+            result.setResponseMessageOK();
+        }
+    }
+
+    /**
+     * @return how many ns after {@code due} the wait ended, 0 if on time
+     */
+    private static long waitUntil(long due) {
+        long left;
+        while ((left = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+            if (Thread.currentThread().isInterrupted()) {
+                return 0;
+            }
+        }
+        // 线程不够时请求会晚于记录的时间发出
+        return left < -1000000 ? -left : 0;
+    }
+
+    private CaptureSource getSource(String name) throws IOException {
+        if (source == null || !name.equals(captureName)) {
+            source = CaptureSource.get(new File(name));
+            captureName = name;
+        }
+        return source;
+    }
+
+    private static void setTime(SampleResult result, long start, long elapsed) {
+        result.setStampAndTime(result.isStampedAtStart() ? start : start + elapsed, elapsed);
+    }
+
+    private void connect(String server, int port) throws IOException {
+        String target = server + ":" + port;
+        if (socket != null && target.equals(connectedTo)) {
+            return;
+        }
+        close();
+        socket = new DatagramSocket();
+        socket.connect(new InetSocketAddress(server, port));
+        datagram = new byte[MAX_DATAGRAM];
+        connectedTo = target;
+    }
+
+    private void close() {
+        if (socket != null) {
+            socket.close();
+        }
+        socket = null;
+        connectedTo = null;
+    }
+
+    @Override
+    public void teardownTest(JavaSamplerContext context) {
+        close();
+        tcp.teardownTest();
+    }
+
+    /**
+     * Writes the request and reads the recorded number of response bytes with {@link #tcp}.
+     */
+    private final class Replayed implements PooledExchange.Conversation<String> {
+        int length;
+        int responseLength;
+
+        public String exchange(PooledConnection connection) throws Exception {
+            tcp.write(connection.getOutputStream(), request, 0, length);
+            return tcp.read(connection.getInputStream(), responseLength);
+        }
+
+        public long getFirstByteNanos() {
+            return tcp.getFirstByteNanos();
+        }
+    }
+}
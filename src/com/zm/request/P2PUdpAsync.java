@@ -0,0 +1,332 @@
+package com.zm.request;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+import com.zm.codec.ResponseFormat;
+import com.zm.frame.CorrelationField;
+import com.zm.frame.LongIntMap;
+import com.zm.message.Message;
+import com.zm.nio.DirectBufferPool;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Sends P2P datagrams without waiting for each response, and matches the responses
+ * to their requests by a sequence field.
+ *
+ * Each sample sends "requests" datagrams built from the template, numbering them in
+ * the integer [lhead]/[head] field named by "sequenceField". A receiver thread reads
+ * the responses of the connected channel and matches them by that field, so a lost
+ * datagram delays no other request; the sample then waits at most "timeout" ms after
+ * the last send for the missing responses.
+ *
+ * Every request is reported as a sub-result with its own latency; lost requests fail,
+ * with the time from their send to the end of the wait.
+ * The sample reports sent, received, lost, duplicate, reordered (answered after a later
+ * request) and stray (late or unknown) responses, and fails if more than
+ * "maxLossPercent" of the requests are lost.
+ */
+public class P2PUdpAsync extends AbstractJavaSamplerClient implements Runnable {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private static final int MAX_DATAGRAM = 65536;
+
+    private DatagramChannel channel;
+    private String connectedTo;
+    private Thread receiver;
+
+    private String lastTemplate;
+    private String lastSequenceName;
+    private volatile CorrelationField sequenceField;
+
+    private long nextValue = 1;
+
+    // 以下状态由lock保护，发送线程和接收线程共用
+    private final Object lock = new Object();
+    private LongIntMap inFlight = new LongIntMap(16);
+    private LongIntMap answered = new LongIntMap(16);
+    private long[] sendNanos = new long[0];
+    private long[] receiveNanos = new long[0];
+    private byte[][] responses = new byte[0][];
+    private int pending;
+    private int lastAnswered;
+    private int duplicates;
+    private int reordered;
+    private int stray;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("timeout", "2000");
+        params.addArgument("requests", "100");
+        params.addArgument("sequenceField", "seq");
+        params.addArgument("maxLossPercent", "0");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult parent = new SampleResult();
+        Sampler sampler = JMeterContextService.getContext().getCurrentSampler();
+        String label = sampler != null ? sampler.getName() : "P2PUdpAsync";
+        parent.setSampleLabel(label);
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+
+        String template = context.getParameter("template", "");
+        int count = Math.max(1, context.getIntParameter("requests", 100));
+        long timeout = context.getLongParameter("timeout", 2000);
+        String sequenceName = context.getParameter("sequenceField", "").trim();
+        parent.setSamplerData(template);
+
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        ByteBuffer buffer = null;
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        parent.sampleStart();
+        int sent = 0;
+        String error = null;
+        double maxLoss = 0;
+        try {
+            maxLoss = Double.parseDouble(context.getParameter("maxLossPercent", "0").trim());
+            prepare(template, sequenceName);
+            byte[] data = MessageTemplateCache.getInstance().encode(template);
+            if (data.length > pool.getBufferSize()) {
+                throw new IllegalArgumentException("Datagram of " + data.length + " bytes exceeds p2p.nio.bufferSize");
+            }
+            CorrelationField field = sequenceField;
+            count = (int) Math.min(count, field.maxValue());
+            connect(context.getParameter("server"), context.getIntParameter("port", 0));
+            reset(count);
+            buffer = pool.acquire();
+            buffer.put(data).flip();
+
+            for (; sent < count; sent++) {
+                long value = nextValue;
+                nextValue = nextValue >= field.maxValue() ? 1 : nextValue + 1;
+                field.write(buffer, 0, value);
+                buffer.rewind();
+                // 先登记再发送，响应可能比write返回得更早
+                synchronized (lock) {
+                    inFlight.put(value, sent);
+                    sendNanos[sent] = System.nanoTime();
+                    pending++;
+                }
+                channel.write(buffer);
+            }
+            waitForResponses(timeout);
+        } catch (Exception e) {
+            error = e.toString();
+            if (e instanceof IOException) {
+                LOG.warn("Async UDP failed after " + sent + " requests", e);
+                close();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        // 丢失的请求等到这里为止
+        long waitEnd = System.nanoTime();
+        parent.sampleEnd();
+
+        int received = 0;
+        String summary;
+        synchronized (lock) {
+            for (int i = 0; i < sent; i++) {
+                SampleResult child = new SampleResult();
+                child.setSampleLabel(label + "-" + i);
+                long sentAt = startMillis + (sendNanos[i] - startNanos) / 1000000;
+                if (receiveNanos[i] != 0) {
+                    long elapsed = (receiveNanos[i] - sendNanos[i]) / 1000000;
+                    child.setStampAndTime(sentAt, elapsed);
+                    child.setLatency(elapsed);
+                    child.setResponseData(ResponseFormat.toResponseBytes(responses[i]));
+                    child.setDataType(SampleResult.TEXT);
+                    child.setResponseCodeOK();
+                    child.setResponseMessageOK();
+                    child.setSuccessful(true);
+                    received++;
+                } else {
+                    long waited = (waitEnd - sendNanos[i]) / 1000000;
+                    child.setStampAndTime(sentAt, waited);
+                    child.setResponseMessage("No response within " + waited + " ms");
+                    child.setSuccessful(false);
+                }
+                parent.addSubResult(child);
+            }
+            // 之后到达的响应计为stray
+            inFlight.clear();
+            pending = 0;
+            summary = "sent=" + sent + " received=" + received + " lost=" + (sent - received)
+                    + " duplicates=" + duplicates + " reordered=" + reordered + " stray=" + stray;
+        }
+
+        int lost = sent - received;
+        parent.setResponseData(summary, null);
+        parent.setDataType(SampleResult.TEXT);
+        if (error != null) {
+            parent.setSuccessful(false);
+            parent.setResponseMessage(error);
+        } else if (sent > 0 && lost * 100.0 / sent > maxLoss) {
+            parent.setSuccessful(false);
+            parent.setResponseMessage(summary);
+        } else {
+            parent.setSuccessful(true);
+            parent.setResponseCodeOK();
+            parent.setResponseMessage(summary);
+        }
+        return parent;
+    }
+
+    private void prepare(String template, String sequenceName) {
+        if (template.equals(lastTemplate) && sequenceName.equals(lastSequenceName)) {
+            return;
+        }
+        CorrelationField field = CorrelationField.fromMessage(new Message(template), sequenceName);
+        if (field == null) {
+            throw new IllegalArgumentException("No fixed position integer header field " + sequenceName);
+        }
+        sequenceField = field;
+        lastTemplate = template;
+        lastSequenceName = sequenceName;
+    }
+
+    private void reset(int count) {
+        synchronized (lock) {
+            if (inFlight.capacity() < count) {
+                inFlight = new LongIntMap(count);
+                answered = new LongIntMap(count);
+                sendNanos = new long[count];
+                receiveNanos = new long[count];
+                responses = new byte[count][];
+            } else {
+                inFlight.clear();
+                answered.clear();
+                Arrays.fill(receiveNanos, 0);
+            }
+            pending = 0;
+            lastAnswered = -1;
+            duplicates = 0;
+            reordered = 0;
+            stray = 0;
+        }
+    }
+
+    private void waitForResponses(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout * 1000000;
+        synchronized (lock) {
+            long left;
+            while (pending > 0 && (left = deadline - System.nanoTime()) > 0) {
+                lock.wait(Math.max(1, left / 1000000));
+            }
+        }
+    }
+
+    /**
+     * Receiver thread: matches responses until the channel is closed.
+     */
+    @Override
+    public void run() {
+        DatagramChannel ch = channel;
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        byte[] data = buffer.array();
+        while (ch.isOpen()) {
+            int length;
+            try {
+                buffer.clear();
+                length = ch.read(buffer);
+            } catch (PortUnreachableException e) {
+                // 对端端口未监听，请求会按丢失统计
+                continue;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                LOG.warn("Async UDP receive failed", e);
+                return;
+            }
+            long now = System.nanoTime();
+            CorrelationField field = sequenceField;
+            synchronized (lock) {
+                if (length < field.getOffset() + field.getSize()) {
+                    stray++;
+                    continue;
+                }
+                long value = field.read(data, 0, length);
+                int index = inFlight.remove(value);
+                if (index != LongIntMap.MISSING) {
+                    receiveNanos[index] = now;
+                    byte[] response = new byte[length];
+                    System.arraycopy(data, 0, response, 0, length);
+                    responses[index] = response;
+                    answered.put(value, index);
+                    if (index < lastAnswered) {
+                        reordered++;
+                    } else {
+                        lastAnswered = index;
+                    }
+                    if (--pending == 0) {
+                        lock.notifyAll();
+                    }
+                } else if (answered.get(value) != LongIntMap.MISSING) {
+                    duplicates++;
+                } else {
+                    stray++;
+                }
+            }
+        }
+    }
+
+    private void connect(String server, int port) throws IOException {
+        String target = server + ":" + port;
+        if (channel != null && channel.isOpen() && target.equals(connectedTo)) {
+            return;
+        }
+        close();
+        channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(server, port));
+        connectedTo = target;
+        receiver = new Thread(this, "P2PUdpAsync-receiver-" + target); // $NON-NLS-1$
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                // 关闭通道会让接收线程的read返回
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Close failed", e);
+            }
+        }
+        if (receiver != null) {
+            try {
+                receiver.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel = null;
+        receiver = null;
+        connectedTo = null;
+    }
+
+    @Override
+    public void teardownTest(JavaSamplerContext context) {
+        close();
+    }
+}
@@ -0,0 +1,165 @@
+package com.zm.request;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import com.zm.frame.CorrelationField;
+import com.zm.message.Message;
+import com.zm.nio.DirectBufferPool;
+import com.zm.template.MessageTemplateCache;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Sends bursts of P2P datagrams through a connected {@link DatagramChannel}.
+ *
+ * The template is encoded once per sample into a pooled direct buffer (see
+ * {@link DirectBufferPool}) and sent "packets" times. If "sequenceField" names an
+ * integer [lhead]/[head] field, it is incremented in place for every datagram, so
+ * the datagrams differ without encoding the template again.
+ *
+ * One sample covers one burst: its time is the time to hand all datagrams to the
+ * network stack, and the response message reports packets/s. Responses are not read,
+ * so the sample has no response bytes; the bytes sent are published as the variable
+ * "p2p.burst.bytes".
+ */
+public class P2PUdpBurst extends AbstractJavaSamplerClient {
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private DatagramChannel channel;
+    private String connectedTo;
+
+    private String lastTemplate;
+    private String lastSequenceName;
+    private CorrelationField sequenceField;
+
+    private long nextValue = 1;
+
+    public Arguments getDefaultParameters() {
+        Arguments params = new Arguments();
+        params.addArgument("server", "127.0.0.1");
+        params.addArgument("port", "");
+        params.addArgument("packets", "100");
+        params.addArgument("sequenceField", "");
+        params.addArgument("template", "");
+        return params;
+    }
+
+    @Override
+    public SampleResult runTest(JavaSamplerContext context) {
+        SampleResult result = new SampleResult();
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
+        String template = context.getParameter("template", "");
+        int packets = Math.max(1, context.getIntParameter("packets", 100));
+        String sequenceName = context.getParameter("sequenceField", "").trim();
+        result.setSamplerData(template);
+
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        ByteBuffer buffer = null;
+        try {
+            prepare(template, sequenceName);
+            byte[] data = MessageTemplateCache.getInstance().encode(template);
+            if (data.length > pool.getBufferSize()) {
+                throw new IllegalArgumentException("Datagram of " + data.length + " bytes exceeds p2p.nio.bufferSize");
+            }
+            connect(context.getParameter("server"), context.getIntParameter("port", 0));
+            buffer = pool.acquire();
+            buffer.put(data).flip();
+
+            int sent = 0;
+            long bytes = 0;
+            result.sampleStart();
+            try {
+                for (; sent < packets; sent++) {
+                    if (sequenceField != null) {
+                        sequenceField.write(buffer, 0, nextValue);
+                        nextValue = nextValue >= sequenceField.maxValue() ? 1 : nextValue + 1;
+                    }
+                    buffer.rewind();
+                    bytes += channel.write(buffer);
+                }
+            } finally {
+                result.sampleEnd();
+            }
+            double seconds = Math.max(1, result.getTime()) / 1000.0;
+            // 不读响应，接收字节数为0；发送的字节数放到变量里
+            JMeterVariables vars = JMeterContextService.getContext().getVariables();
+            if (vars != null) {
+                vars.put("p2p.burst.bytes", Long.toString(bytes)); // $NON-NLS-1$
+            }
+            result.setDataType(SampleResult.TEXT);
+            result.setResponseCodeOK();
+            result.setResponseMessage(sent + " packets, " + bytes + " bytes sent, "
+                    + Math.round(sent / seconds) + " packets/s");
+            result.setSuccessful(true);
+        } catch (Exception e) {
+            if (result.getStartTime() == 0) {
+                result.sampleStart();
+            }
+            if (result.getEndTime() == 0) {
+                result.sampleEnd();
+            }
+            result.setSuccessful(false);
+            result.setResponseMessage(e.toString());
+            if (e instanceof IOException) {
+                LOG.warn("UDP burst failed", e);
+                close();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return result;
+    }
+
+    private void prepare(String template, String sequenceName) {
+        if (template.equals(lastTemplate) && sequenceName.equals(lastSequenceName)) {
+            return;
+        }
+        sequenceField = null;
+        if (sequenceName.length() > 0) {
+            sequenceField = CorrelationField.fromMessage(new Message(template), sequenceName);
+            if (sequenceField == null) {
+                throw new IllegalArgumentException("No fixed position integer header field " + sequenceName);
+            }
+        }
+        lastTemplate = template;
+        lastSequenceName = sequenceName;
+    }
+
+    private void connect(String server, int port) throws IOException {
+        String target = server + ":" + port;
+        if (channel != null && target.equals(connectedTo)) {
+            return;
+        }
+        close();
+        channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(server, port));
+        connectedTo = target;
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Close failed", e);
+            }
+        }
+        channel = null;
+        connectedTo = null;
+    }
+
+    @Override
+    public void teardownTest(JavaSamplerContext context) {
+        close();
+    }
+}
@@ -0,0 +1,16 @@
+package com.zm.rmi;
+
+import java.rmi.RemoteException;
+import java.util.BitSet;
+
+/**
+ * {@link Exists} with batch queries: one remote call checks many paths.
+ *
+ * Results are returned as a {@link BitSet} where bit i is set if paths[i] matches,
+ * one bit per path on the wire.
+ */
+public interface BatchExists extends Exists {
+    public BitSet filesExist(String[] filePaths) throws RemoteException;
+    public BitSet directoriesExist(String[] filePaths) throws RemoteException;
+    public BitSet directoriesHaveFiles(String[] filePaths) throws RemoteException;
+}
@@ -0,0 +1,185 @@
+package com.zm.rmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.BitSet;
+
+/**
+ * Reference {@link BatchExists} and {@link WaitingExists} server for local testing of the FileExists sampler.
+ *
+ * <pre>
+ * java com.zm.rmi.ExistsServer [port]
+ * </pre>
+ * Starts a registry on the port (default 1099) and binds the service as "exists".
+ * Paths are resolved on the local file system; {@link #listDir(String)} returns the
+ * names of the entries separated by commas. {@link #waitFor(String, int, long)} sleeps on
+ * file system watch events of the nearest existing directory, and checks again at least
+ * every second in case events are missed or delayed by the platform.
+ */
+public class ExistsServer extends UnicastRemoteObject implements BatchExists, WaitingExists {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final long RECHECK_MILLIS = 1000;
+
+    private PathWatcher watcher;
+
+    public ExistsServer() throws RemoteException {
+        super();
+    }
+
+    @Override
+    public boolean fileExist(String filePath) {
+        return new File(filePath).isFile();
+    }
+
+    @Override
+    public boolean directoryExist(String filePath) {
+        return new File(filePath).isDirectory();
+    }
+
+    @Override
+    public boolean directoryHasFiles(String filePath) {
+        String[] names = new File(filePath).list();
+        return names != null && names.length > 0;
+    }
+
+    @Override
+    public String listDir(String filePath) {
+        String[] names = new File(filePath).list();
+        if (names == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long waitFor(String filePath, int condition, long timeout) throws RemoteException {
+        long start = System.nanoTime();
+        long deadline = start + timeout * 1000000;
+        Path target = Paths.get(filePath).toAbsolutePath();
+        PathWatcher watcher;
+        try {
+            watcher = watcher();
+        } catch (IOException e) {
+            throw new RemoteException("Cannot watch " + filePath, e);
+        }
+        PathWatcher.Watch watch = null;
+        try {
+            while (true) {
+                // 目标的上级目录可能尚未创建，监听最近的已存在目录
+                Path dir = watchedDirectory(target, condition);
+                if (watch == null || !watch.dir.equals(dir)) {
+                    if (watch != null) {
+                        watcher.release(watch);
+                        watch = null;
+                    }
+                    watch = watcher.watch(dir);
+                }
+                long seen = watch.version();
+                if (holds(filePath, condition)) {
+                    return (System.nanoTime() - start) / 1000000;
+                }
+                long left = (deadline - System.nanoTime()) / 1000000;
+                if (left <= 0) {
+                    return -1;
+                }
+                watch.await(seen, Math.min(left, RECHECK_MILLIS));
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Cannot watch " + filePath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for " + filePath, e);
+        } finally {
+            if (watch != null) {
+                watcher.release(watch);
+            }
+        }
+    }
+
+    private boolean holds(String filePath, int condition) {
+        switch (condition) {
+            case 0:
+                return fileExist(filePath);
+            case 1:
+                return directoryExist(filePath);
+            case 2:
+                return directoryHasFiles(filePath);
+            default:
+                throw new IllegalArgumentException("Unknown condition " + condition);
+        }
+    }
+
+    private static Path watchedDirectory(Path target, int condition) throws IOException {
+        Path dir = condition == 2 ? target : target.getParent();
+        while (dir != null && !Files.isDirectory(dir)) {
+            dir = dir.getParent();
+        }
+        if (dir == null) {
+            throw new IOException("No existing directory above " + target);
+        }
+        return dir;
+    }
+
+    private synchronized PathWatcher watcher() throws IOException {
+        if (watcher == null) {
+            watcher = new PathWatcher();
+        }
+        return watcher;
+    }
+
+    @Override
+    public BitSet filesExist(String[] filePaths) {
+        BitSet result = new BitSet(filePaths.length);
+        for (int i = 0; i < filePaths.length; i++) {
+            if (fileExist(filePaths[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public BitSet directoriesExist(String[] filePaths) {
+        BitSet result = new BitSet(filePaths.length);
+        for (int i = 0; i < filePaths.length; i++) {
+            if (directoryExist(filePaths[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public BitSet directoriesHaveFiles(String[] filePaths) {
+        BitSet result = new BitSet(filePaths.length);
+        for (int i = 0; i < filePaths.length; i++) {
+            if (directoryHasFiles(filePaths[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Registry.REGISTRY_PORT;
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind("exists", new ExistsServer());
+        System.out.println("Exists service bound on port " + port);
+    }
+}
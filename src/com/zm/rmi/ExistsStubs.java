@@ -0,0 +1,46 @@
+package com.zm.rmi;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the {@link Exists} stub of every rmi server, so samples do not look up
+ * the registry each time.
+ *
+ * A stub that failed with a {@link RemoteException} is dropped with
+ * {@link #invalidate(String, Exists)} and looked up again on next use.
+ */
+public final class ExistsStubs {
+
+    private static final ConcurrentMap<String, Exists> stubs = new ConcurrentHashMap<String, Exists>();
+
+    private ExistsStubs() {
+    }
+
+    /**
+     * @param rmiServer host or host:port of the registry
+     * @return the cached stub, looked up if needed
+     */
+    public static Exists get(String rmiServer) throws RemoteException, NotBoundException, MalformedURLException {
+        Exists exists = stubs.get(rmiServer);
+        if (exists == null) {
+            exists = (Exists) Naming.lookup("rmi://" + rmiServer + "/exists");
+            Exists previous = stubs.putIfAbsent(rmiServer, exists);
+            if (previous != null) {
+                exists = previous;
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Drops a stub, unless another thread already replaced it.
+     */
+    public static void invalidate(String rmiServer, Exists exists) {
+        stubs.remove(rmiServer, exists);
+    }
+}
@@ -0,0 +1,114 @@
+package com.zm.rmi;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares one {@link WatchService} among the threads waiting for changes in directories.
+ *
+ * A waiter calls {@link #watch(Path)}, then {@link Watch#await(long, long)} to sleep until
+ * something in the directory changes, and {@link #release(Watch)} when done. The directory
+ * stays registered while it has waiters.
+ */
+final class PathWatcher implements Runnable {
+
+    /**
+     * Watch of one directory; its version grows with every batch of events.
+     */
+    static final class Watch {
+        final Path dir;
+        private final WatchKey key;
+        private int waiters;
+        private long version;
+
+        Watch(Path dir, WatchKey key) {
+            this.dir = dir;
+            this.key = key;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void changed() {
+            version++;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the version differs from seen, or at most maxMillis.
+         */
+        synchronized void await(long seen, long maxMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + maxMillis;
+            long left = maxMillis;
+            while (version == seen && left > 0) {
+                wait(left);
+                left = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+
+    private final WatchService service;
+
+    private final Map<Path, Watch> watches = new HashMap<Path, Watch>();
+
+    PathWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this, "PathWatcher"); // $NON-NLS-1$
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Watch watch(Path dir) throws IOException {
+        synchronized (watches) {
+            Watch w = watches.get(dir);
+            if (w == null) {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                w = new Watch(dir, key);
+                watches.put(dir, w);
+            }
+            w.waiters++;
+            return w;
+        }
+    }
+
+    void release(Watch w) {
+        synchronized (watches) {
+            if (--w.waiters == 0) {
+                w.key.cancel();
+                watches.remove(w.dir);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            key.pollEvents();
+            Watch w;
+            synchronized (watches) {
+                w = watches.get((Path) key.watchable());
+            }
+            if (w != null) {
+                w.changed();
+            }
+            key.reset();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.zm.rmi;
+
+import java.rmi.RemoteException;
+
+/**
+ * {@link Exists} with a blocking wait: the server answers when the condition holds,
+ * so the client does not have to poll.
+ *
+ * Servers deployed before this interface only implement {@link Exists}; check the
+ * stub with instanceof before calling.
+ */
+public interface WaitingExists extends Exists {
+
+    /**
+     * Blocks until a condition on the path holds, or the timeout expires.
+     *
+     * @param filePath path on the server
+     * @param condition 0: file exists, 1: directory exists, 2: directory has files
+     * @param timeout maximum wait in milliseconds
+     * @return milliseconds from the arrival of the call until the condition held, 0 if it
+     *         already held, or -1 on timeout
+     */
+    public long waitFor(String filePath, int condition, long timeout) throws RemoteException;
+}
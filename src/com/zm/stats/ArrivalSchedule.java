@@ -0,0 +1,185 @@
+package com.zm.stats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Fixed-rate schedule of intended request start times, to correct latency for
+ * coordinated omission.
+ *
+ * When the server stalls, a closed-loop thread sends fewer requests, and the requests
+ * it did not send never show the stall. With a schedule, every request has an intended
+ * start time, slot n at {@code start + n / rate}, whether or not a thread was free to
+ * send it then. The P2P samplers measure the raw latency from the moment they send and
+ * the corrected latency from the intended time, and publish both as the variables
+ * "p2p.latency.raw" and "p2p.latency.corrected" in ms; add them to "sample_variables"
+ * to save them with the results. Both are cleared when a request is sent; a request that
+ * fails publishes them up to the failure: the TCP sampler does so itself, a UDP timeout
+ * is published by the P2P assertion of the sample, as the UDP decoder does not see it.
+ *
+ * Intended times are taken by {@link org.apache.jmeter.timers.P2PArrivalTimer}; a
+ * schedule is shared by all threads of the timer, or belongs to one thread.
+ */
+public final class ArrivalSchedule {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final ConcurrentMap<String, ArrivalSchedule> schedules = new ConcurrentHashMap<String, ArrivalSchedule>();
+
+    private static final String RAW = "p2p.latency.raw"; // $NON-NLS-1$
+
+    private static final String CORRECTED = "p2p.latency.corrected"; // $NON-NLS-1$
+
+    // 本线程当前请求的预定时间（0表示没有）、上一个请求修正后的延迟、当前请求的发送时间
+    // 和上一个请求晚于预定时间发送的毫秒数
+    private static final ThreadLocal<long[]> current = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{0, -1, 0, -1};
+        }
+    };
+
+    private final double rate;
+
+    private final double intervalNanos;
+
+    private final long start = System.nanoTime();
+
+    private final AtomicLong slots = new AtomicLong();
+
+    // 只报告一次速率不一致
+    private volatile boolean rateMismatchLogged;
+
+    private ArrivalSchedule(double rate) {
+        this.rate = rate;
+        this.intervalNanos = 1e9 / rate;
+    }
+
+    /**
+     * A schedule keeps the rate it was started with until {@link #clear()}: restarting it
+     * would make every request on time, and the corrected latency equal to the raw one.
+     * Asking for a different rate logs an error once.
+     *
+     * @param key name of the schedule, unique to the timer taking its slots
+     * @param rate requests per second, above 0
+     * @return the schedule, started now if it is new
+     */
+    public static ArrivalSchedule get(String key, double rate) {
+        ArrivalSchedule schedule = schedules.get(key);
+        if (schedule == null) {
+            ArrivalSchedule created = new ArrivalSchedule(rate);
+            schedule = schedules.putIfAbsent(key, created);
+            if (schedule == null) {
+                schedule = created;
+            }
+        }
+        if (schedule.rate != rate && !schedule.rateMismatchLogged) {
+            schedule.rateMismatchLogged = true;
+            log.error("Arrival schedule " + key + " runs at " + schedule.rate + "/s, ignoring rate " + rate
+                    + "/s; the rate cannot change during a test");
+        }
+        return schedule;
+    }
+
+    /**
+     * Forgets all schedules, so the next test starts new ones.
+     */
+    public static void clear() {
+        schedules.clear();
+    }
+
+    /**
+     * Takes the next slot for the calling thread, see {@link #complete(long, long, JMeterVariables)}.
+     *
+     * @return {@link System#nanoTime()} when the request is intended to start; may be in the past
+     */
+    public long next() {
+        long intended = start + (long) (slots.getAndIncrement() * intervalNanos);
+        current.get()[0] = intended;
+        return intended;
+    }
+
+    /**
+     * Clears the latency of the previous request of the calling thread, so that a request
+     * that never completes does not show it.
+     *
+     * @param sendNanos {@link System#nanoTime()} when the request is sent
+     * @param vars variables of the thread, may be null
+     */
+    public static void sending(long sendNanos, JMeterVariables vars) {
+        long[] state = current.get();
+        state[1] = -1;
+        state[2] = sendNanos;
+        state[3] = -1;
+        if (vars != null && vars.get(RAW) != null) {
+            vars.put(RAW, "");
+            vars.put(CORRECTED, "");
+        }
+    }
+
+    /**
+     * Publishes the latency up to the failure of a request of the calling thread that was
+     * sent but not completed. Does nothing if it was completed or had no intended time.
+     *
+     * @param endNanos {@link System#nanoTime()} when the request failed
+     * @param vars variables of the thread, may be null
+     */
+    public static void failed(long endNanos, JMeterVariables vars) {
+        complete(current.get()[2], endNanos, vars);
+    }
+
+    /**
+     * Publishes the raw and corrected latency of the request of the calling thread.
+     * Does nothing if the request had no intended time.
+     *
+     * @param sendNanos {@link System#nanoTime()} when the request was sent
+     * @param endNanos {@link System#nanoTime()} when the response was complete
+     * @param vars variables of the thread, may be null
+     */
+    public static void complete(long sendNanos, long endNanos, JMeterVariables vars) {
+        long[] state = current.get();
+        long intended = state[0];
+        if (intended == 0) {
+            return;
+        }
+        state[0] = 0;
+        // 按时发送时两者相同
+        long corrected = (endNanos - Math.min(intended, sendNanos)) / 1000000;
+        state[1] = corrected;
+        state[3] = Math.max(0, sendNanos - intended) / 1000000;
+        if (vars != null) {
+            vars.put(RAW, Long.toString((endNanos - sendNanos) / 1000000));
+            vars.put(CORRECTED, Long.toString(corrected));
+        }
+    }
+
+    /**
+     * @return corrected latency in ms of the last request completed by the calling thread,
+     *         or -1; cleared by this call
+     */
+    public static long takeCorrected() {
+        long[] state = current.get();
+        long corrected = state[1];
+        state[1] = -1;
+        return corrected;
+    }
+
+    /**
+     * For responses of several messages: the corrected latency of a message is its time
+     * from the send plus this delay.
+     *
+     * @return ms the last request completed by the calling thread was sent after its
+     *         intended time, or -1 if it had none; cleared by this call
+     */
+    public static long takeLate() {
+        long[] state = current.get();
+        long late = state[3];
+        state[3] = -1;
+        return late;
+    }
+}
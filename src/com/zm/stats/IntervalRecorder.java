@@ -0,0 +1,47 @@
+package com.zm.stats;
+
+/**
+ * Double buffered histogram with one writer thread and one reader thread.
+ *
+ * The writer records into the active histogram without locks; the reader swaps in
+ * the other histogram and waits for a record in progress to finish before reading
+ * the one swapped out, as HdrHistogram's WriterReaderPhaser does for one writer.
+ */
+final class IntervalRecorder {
+
+    private volatile LatencyHistogram active = new LatencyHistogram();
+
+    private LatencyHistogram inactive = new LatencyHistogram();
+
+    private volatile long started;
+
+    private volatile long finished;
+
+    /**
+     * Called by the writer thread only.
+     */
+    void record(long value) {
+        long ticket = started + 1;
+        started = ticket;
+        active.record(value);
+        finished = ticket;
+    }
+
+    /**
+     * Called by the reader thread only: adds what was recorded since the previous
+     * call to the target and starts a new interval.
+     */
+    void drainTo(LatencyHistogram target) {
+        inactive.reset();
+        LatencyHistogram full = active;
+        active = inactive;
+        // 写线程可能还在写旧的直方图，等它写完
+        long ticket = started;
+        while (finished != ticket) {
+            Thread.yield();
+            ticket = started;
+        }
+        inactive = full;
+        target.add(full);
+    }
+}
@@ -0,0 +1,130 @@
+package com.zm.stats;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies with a fixed memory footprint, in the style of HdrHistogram.
+ *
+ * Values below 128 are counted exactly; above, every power of two is split into 64
+ * buckets, so a value is known within 1/64 (about 1.6%). Values above {@link #MAX_VALUE}
+ * are counted as MAX_VALUE. Not thread safe.
+ */
+public final class LatencyHistogram {
+
+    /** Largest value kept apart, 2^36 - 1. */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_COUNT;
+    private static final int BUCKETS = LINEAR + (36 - SUB_BITS - 1) * SUB_COUNT;
+
+    /** Approximate heap size of a histogram in bytes. */
+    static final int FOOTPRINT = BUCKETS * 8 + 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        if (count > 0) {
+            Arrays.fill(counts, 0);
+            count = 0;
+            sum = 0;
+            min = Long.MAX_VALUE;
+            max = 0;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return smallest value, 0 if empty
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return highest value of the bucket holding the percentile, at most {@link #getMax()}; 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // value >= 128: shift = floor(log2(value)) - SUB_BITS >= 1
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return LINEAR + (shift - 1) * SUB_COUNT + sub;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        long sub = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,320 @@
+package com.zm.stats;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.zm.Field.Field;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Records sample times per message type into {@link LatencyHistogram}s and exports
+ * percentiles at a fixed interval.
+ *
+ * The message type is the value of a [head] or [lhead] field of the decoded response,
+ * such as the command. Under an {@link ArrivalSchedule}, the latency corrected for
+ * coordinated omission is exported as well, as type "&lt;type&gt; corrected". Every thread records into its own histograms without locks;
+ * a background thread merges them every interval and appends one line per type to the
+ * export file: CSV, or JSON lines if the file name ends with ".json". Memory does not
+ * grow with the number of samples. The histograms of a thread are merged one last time
+ * and dropped once the thread has finished, at the next export or when a new thread
+ * starts recording, as at the start of a test.
+ *
+ * Properties:
+ * "p2p.histogram.field" name of the field giving the message type (default empty: recording off),
+ * "p2p.histogram.file" export file (default p2p-latency.csv),
+ * "p2p.histogram.interval" seconds between exports (default 10),
+ * "p2p.histogram.maxKeys" types kept apart per thread, later types are counted as "other" (default 256),
+ * "p2p.histogram.maxThreadBytes" memory of the histograms of one thread; lowers maxKeys if needed, each
+ * type taking about 32 KB (default 4 MB).
+ */
+public final class LatencyRecorder {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String fieldName = JMeterUtils.getPropDefault("p2p.histogram.field", "").trim(); // $NON_NLS-1$
+
+    private static final String fileName = JMeterUtils.getPropDefault("p2p.histogram.file", "p2p-latency.csv"); // $NON_NLS-1$
+
+    private static final int interval = JMeterUtils.getPropDefault("p2p.histogram.interval", 10); // $NON_NLS-1$
+
+    private static final int maxKeys = JMeterUtils.getPropDefault("p2p.histogram.maxKeys", 256); // $NON_NLS-1$
+
+    private static final long maxThreadBytes = JMeterUtils.getPropDefault("p2p.histogram.maxThreadBytes", 4L * 1024 * 1024); // $NON_NLS-1$
+
+    // 每个类型双缓冲两个直方图，"other"也占一个类型
+    private static final int keysPerThread = (int) Math.max(1,
+            Math.min(maxKeys, maxThreadBytes / (2L * LatencyHistogram.FOOTPRINT) - 1));
+
+    private static final String OTHER = "other";
+
+    private static final String CORRECTED = " corrected";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static LatencyRecorder instance;
+
+    private final List<ThreadRecorders> threads = new CopyOnWriteArrayList<ThreadRecorders>();
+
+    private final ThreadLocal<ThreadRecorders> local = new ThreadLocal<ThreadRecorders>() {
+        @Override
+        protected ThreadRecorders initialValue() {
+            // 新测试的线程都是新的，先收回已结束线程的直方图
+            drain(true);
+            ThreadRecorders recorders = new ThreadRecorders();
+            threads.add(recorders);
+            return recorders;
+        }
+    };
+
+    // 以下只由导出线程使用
+    private final Map<String, LatencyHistogram> merged = new TreeMap<String, LatencyHistogram>();
+
+    private final boolean json;
+
+    private Writer out;
+
+    private long intervalStart = System.currentTimeMillis();
+
+    private LatencyRecorder(boolean json) {
+        this.json = json;
+    }
+
+    /**
+     * @return true if "p2p.histogram.field" is set
+     */
+    public static boolean isEnabled() {
+        return fieldName.length() > 0;
+    }
+
+    /**
+     * @return the recorder, its export thread started on first use
+     */
+    public static synchronized LatencyRecorder getInstance() {
+        if (instance == null) {
+            final LatencyRecorder recorder = new LatencyRecorder(fileName.endsWith(".json"));
+            try {
+                recorder.open(new File(fileName));
+            } catch (IOException e) {
+                log.error("Cannot open histogram file " + fileName, e);
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.run();
+                }
+            }, "P2PLatencyRecorder"); // $NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.close();
+                }
+            }, "P2PLatencyRecorder-shutdown")); // $NON-NLS-1$
+            log.info("Recording latency by " + fieldName + " to " + fileName + " every " + interval + "s"
+                    + (keysPerThread < maxKeys ? ", " + keysPerThread + " types per thread" : ""));
+            instance = recorder;
+        }
+        return instance;
+    }
+
+    /**
+     * Records a sample time under the type of the message.
+     *
+     * @param message decoded response
+     * @param time sample time in milliseconds
+     */
+    public void record(Message message, long time) {
+        record(keyOf(message), time);
+    }
+
+    /**
+     * Records a sample time and its latency corrected by an {@link ArrivalSchedule}; the
+     * corrected latency is exported under the type followed by " corrected".
+     *
+     * @param message decoded response
+     * @param time sample time in milliseconds
+     * @param corrected latency from the intended start in milliseconds, or -1 if not scheduled
+     */
+    public void record(Message message, long time, long corrected) {
+        String key = keyOf(message);
+        record(key, time);
+        if (corrected >= 0) {
+            record(key + CORRECTED, corrected);
+        }
+    }
+
+    private void record(String key, long time) {
+        Map<String, IntervalRecorder> recorders = local.get().recorders;
+        IntervalRecorder recorder = recorders.get(key);
+        if (recorder == null) {
+            if (recorders.size() >= keysPerThread) {
+                key = OTHER;
+                recorder = recorders.get(key);
+            }
+            if (recorder == null) {
+                recorder = new IntervalRecorder();
+                recorders.put(key, recorder);
+            }
+        }
+        recorder.record(time);
+    }
+
+    private static String keyOf(Message message) {
+        MsgBlock[] blocks = {message.header, message.longHeader};
+        for (MsgBlock block : blocks) {
+            if (block == null) {
+                continue;
+            }
+            ArrayList<Field> list = block.list;
+            for (int i = 0; i < list.size(); i++) {
+                Field field = list.get(i);
+                if (fieldName.equals(field.getName())) {
+                    return field.getStrValue();
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    private void open(File file) throws IOException {
+        boolean exists = file.length() > 0;
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        if (!json && !exists) {
+            out.write("timeStamp,interval," + fieldName + ",count,min,mean,p50,p90,p99,p99.9,max\n");
+            out.flush();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            export();
+        }
+    }
+
+    /**
+     * Merges the histograms of all threads and writes the interval.
+     */
+    private synchronized void export() {
+        drain(false);
+        long now = System.currentTimeMillis();
+        long length = now - intervalStart;
+        intervalStart = now;
+        if (out == null) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, LatencyHistogram> entry : merged.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                if (histogram.getCount() > 0) {
+                    out.write(json ? toJson(now, length, entry.getKey(), histogram)
+                            : toCsv(now, length, entry.getKey(), histogram));
+                    histogram.reset();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            log.error("Cannot write histogram file, export stopped", e);
+            out = null;
+        }
+    }
+
+    /**
+     * Adds the histograms of the threads to the merged ones, and forgets the threads that
+     * have finished.
+     *
+     * @param finishedOnly true to drain the finished threads only
+     */
+    private synchronized void drain(boolean finishedOnly) {
+        for (ThreadRecorders thread : threads) {
+            boolean finished = !thread.thread.isAlive();
+            if (finishedOnly && !finished) {
+                continue;
+            }
+            for (Map.Entry<String, IntervalRecorder> entry : thread.recorders.entrySet()) {
+                LatencyHistogram histogram = merged.get(entry.getKey());
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    merged.put(entry.getKey(), histogram);
+                }
+                entry.getValue().drainTo(histogram);
+            }
+            if (finished) {
+                threads.remove(thread);
+            }
+        }
+    }
+
+    private static String toCsv(long time, long length, String key, LatencyHistogram h) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(time).append(',').append(length).append(',').append(csvQuote(key))
+                .append(',').append(h.getCount()).append(',').append(h.getMin())
+                .append(',').append(String.format(Locale.ROOT, "%.2f", h.getMean()));
+        for (double p : PERCENTILES) {
+            sb.append(',').append(h.getValueAtPercentile(p));
+        }
+        return sb.append(',').append(h.getMax()).append('\n').toString();
+    }
+
+    private static String toJson(long time, long length, String key, LatencyHistogram h) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"timeStamp\":").append(time).append(",\"interval\":").append(length)
+                .append(",\"key\":\"").append(key.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\",\"count\":").append(h.getCount()).append(",\"min\":").append(h.getMin())
+                .append(",\"mean\":").append(String.format(Locale.ROOT, "%.2f", h.getMean()));
+        for (double p : PERCENTILES) {
+            sb.append(",\"p").append(p == Math.rint(p) ? String.valueOf((long) p) : String.valueOf(p))
+                    .append("\":").append(h.getValueAtPercentile(p));
+        }
+        return sb.append(",\"max\":").append(h.getMax()).append("}\n").toString();
+    }
+
+    private static String csvQuote(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Exports the last interval and closes the file.
+     */
+    public synchronized void close() {
+        export();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.error("Cannot close histogram file", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Histograms of one thread, written by that thread only.
+     */
+    private static final class ThreadRecorders {
+        final Thread thread = Thread.currentThread();
+        final Map<String, IntervalRecorder> recorders = new ConcurrentHashMap<String, IntervalRecorder>();
+    }
+}
@@ -0,0 +1,308 @@
+package com.zm.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.zm.codec.HexCodec;
+
+/**
+ * Collects a response as it is read, keeping heap use bounded.
+ *
+ * A leading http header (a response starting with "HTTP/") is recognized while the
+ * bytes arrive; what follows is the body. The body is hashed incrementally, and only
+ * its first "threshold" bytes are kept on the heap: once the body grows beyond that,
+ * the whole body is written to a spill file instead. The file is reused by the next
+ * response and deleted by {@link #close()}.
+ *
+ * The Content-Length of the http header, if any, tells the reader where the body ends,
+ * see {@link #getContentLength()}.
+ *
+ * One instance belongs to one connection. Not thread-safe.
+ */
+public final class SpillingResponse {
+
+    private static final byte[] HTTP = {'H', 'T', 'T', 'P', '/'};
+
+    private static final byte[] END_OF_HEADER = {'\r', '\n', '\r', '\n'};
+
+    private static final String CONTENT_LENGTH = "content-length:";
+
+    private static final long NOT_PARSED = -2;
+
+    private final int threshold;
+
+    private final MessageDigest digest;
+
+    private final File spillDir;
+
+    private byte[] buffer = new byte[4096];
+
+    // buffer里http头的长度，-1表示还没确定是否有http头
+    private int headerLength;
+
+    private int matched;
+
+    private int buffered;
+
+    private long bodyLength;
+
+    // http头里的Content-Length，-1表示没有
+    private long contentLength;
+
+    private File spillFile;
+
+    private OutputStream spill;
+
+    private boolean spilled;
+
+    private byte[] digestValue;
+
+    /**
+     * @param threshold body bytes kept on the heap
+     * @param algorithm digest algorithm, such as MD5, or null for none
+     * @param spillDir directory of the spill file, null for the default temporary directory
+     */
+    public SpillingResponse(int threshold, String algorithm, File spillDir) {
+        this.threshold = threshold;
+        this.spillDir = spillDir;
+        if (algorithm == null || algorithm.length() == 0) {
+            this.digest = null;
+        } else {
+            try {
+                this.digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unknown digest " + algorithm, e);
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Starts a new response, keeping the heap buffer and the spill file.
+     */
+    public void reset() {
+        headerLength = -1;
+        matched = 0;
+        buffered = 0;
+        bodyLength = 0;
+        contentLength = NOT_PARSED;
+        spilled = false;
+        digestValue = null;
+        if (digest != null) {
+            digest.reset();
+        }
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end && headerLength < 0) {
+            offset = scanHeader(data, offset, end);
+        }
+        if (offset < end) {
+            writeBody(data, offset, end - offset);
+        }
+    }
+
+    /**
+     * Consumes bytes of the http header, or decides that there is none.
+     * @return index of the first byte not consumed
+     */
+    private int scanHeader(byte[] data, int offset, int end) {
+        if (buffered < HTTP.length) {
+            // 判断是否以HTTP/开头
+            int n = Math.min(end - offset, HTTP.length - buffered);
+            for (int i = 0; i < n; i++) {
+                if (data[offset + i] != HTTP[buffered + i]) {
+                    // 没有http头，已缓存的字节属于body
+                    headerLength = 0;
+                    if (digest != null) {
+                        digest.update(buffer, 0, buffered);
+                    }
+                    bodyLength = buffered;
+                    return offset;
+                }
+            }
+            append(data, offset, n);
+            return offset + n;
+        }
+        int i = offset;
+        while (i < end) {
+            byte b = data[i++];
+            if (b == END_OF_HEADER[matched]) {
+                if (++matched == END_OF_HEADER.length) {
+                    break;
+                }
+            } else {
+                matched = b == END_OF_HEADER[0] ? 1 : 0;
+            }
+        }
+        append(data, offset, i - offset);
+        if (matched == END_OF_HEADER.length) {
+            headerLength = buffered;
+        }
+        return i;
+    }
+
+    private void writeBody(byte[] data, int offset, int length) throws IOException {
+        if (digest != null) {
+            digest.update(data, offset, length);
+        }
+        long kept = bodyLength;
+        bodyLength += length;
+        if (!spilled && bodyLength > threshold) {
+            startSpill();
+        }
+        if (spilled) {
+            spill.write(data, offset, length);
+        }
+        if (kept < threshold) {
+            append(data, offset, (int) Math.min(length, threshold - kept));
+        }
+    }
+
+    private void startSpill() throws IOException {
+        if (spillFile == null) {
+            spillFile = File.createTempFile("p2p-body", ".tmp", spillDir);
+            spillFile.deleteOnExit();
+        }
+        // 截断上次的内容
+        spill = new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024);
+        spilled = true;
+        int start = Math.max(headerLength, 0);
+        spill.write(buffer, start, buffered - start);
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (buffered + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffered + length, buffer.length * 2));
+        }
+        System.arraycopy(data, offset, buffer, buffered, length);
+        buffered += length;
+    }
+
+    /**
+     * Ends the response: flushes the spill file and completes the digest.
+     */
+    public void finish() throws IOException {
+        if (headerLength < 0) {
+            // 整个响应都是http头的开头部分
+            headerLength = buffered;
+        }
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        if (digest != null) {
+            digestValue = digest.digest();
+        }
+    }
+
+    /**
+     * @return the heap part: the http header and at most threshold body bytes
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getBufferedLength() {
+        return buffered;
+    }
+
+    /**
+     * @return true once the http header was read, or the response turned out to have none
+     */
+    public boolean isHeaderComplete() {
+        return headerLength >= 0;
+    }
+
+    /**
+     * @return the Content-Length of the http header; -1 if the header is not complete yet,
+     *         if there is no http header, or if it has no Content-Length (for example a
+     *         chunked body)
+     */
+    public long getContentLength() {
+        if (contentLength == NOT_PARSED) {
+            if (headerLength < 0) {
+                return -1;
+            }
+            contentLength = parseContentLength();
+        }
+        return contentLength;
+    }
+
+    private long parseContentLength() {
+        String header;
+        try {
+            header = new String(buffer, 0, headerLength, "ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String line : header.split("\r\n")) {
+            if (line.regionMatches(true, 0, CONTENT_LENGTH, 0, CONTENT_LENGTH.length())) {
+                try {
+                    return Long.parseLong(line.substring(CONTENT_LENGTH.length()).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return length of the http header, 0 if there is none
+     */
+    public int getHeaderLength() {
+        return Math.max(headerLength, 0);
+    }
+
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return true if the body exceeded the threshold and is only complete in {@link #getSpillFile()}
+     */
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * @return the file holding the whole body if {@link #isSpilled()}
+     */
+    public File getSpillFile() {
+        return spilled ? spillFile : null;
+    }
+
+    /**
+     * @return hex digest of the body after {@link #finish()}, or null without digest
+     */
+    public String getBodyDigest() {
+        return digestValue == null ? null : HexCodec.encode(digestValue);
+    }
+
+    /**
+     * Deletes the spill file.
+     */
+    public void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // 文件将被删除
+            }
+            spill = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.zm.template;
+
+import java.util.ArrayList;
+
+import com.zm.Field.EightBytes;
+import com.zm.Field.Field;
+import com.zm.Field.FourBytes;
+import com.zm.Field.IP;
+import com.zm.Field.OneByte;
+import com.zm.Field.TwoBytes;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+
+/**
+ * The encoded expected message with the bytes of its don't-care fields masked out.
+ *
+ * A response equal to the expected bytes outside the masked ranges decodes to the same
+ * field values as the expected message, except in don't-care fields, so it passes the
+ * field by field comparison; {@link #matches(byte[])} checks that in one pass over the
+ * raw bytes. Any other response may still pass and must be decoded.
+ */
+final class ByteMask {
+
+    private final byte[] expected;
+
+    // 不比较的字节区间 [skipFrom[i], skipTo[i])，按顺序排列
+    private final int[] skipFrom;
+    private final int[] skipTo;
+
+    private ByteMask(byte[] expected, int[] skipFrom, int[] skipTo) {
+        this.expected = expected;
+        this.skipFrom = skipFrom;
+        this.skipTo = skipTo;
+    }
+
+    /**
+     * @param expect expected message, encoded
+     * @param encoded bytes of the expected message
+     * @return the mask, or null if a don't-care field has no fixed size or the field
+     *         lengths do not add up to the encoded length
+     */
+    static ByteMask compile(Message expect, byte[] encoded) {
+        ArrayList<Integer> from = new ArrayList<Integer>();
+        ArrayList<Integer> to = new ArrayList<Integer>();
+        int offset = 0;
+        MsgBlock[] blocks = {expect.longHeader, expect.header, expect.msgBody};
+        for (MsgBlock block : blocks) {
+            if (block == null) {
+                continue;
+            }
+            for (Field field : block.list) {
+                int len = field.getLen();
+                if (!field.isValueCare()) {
+                    if (!isFixedSize(field)) {
+                        return null;
+                    }
+                    from.add(offset);
+                    to.add(offset + len);
+                }
+                offset += len;
+            }
+        }
+        if (offset != encoded.length) {
+            return null;
+        }
+        int[] skipFrom = new int[from.size()];
+        int[] skipTo = new int[to.size()];
+        for (int i = 0; i < skipFrom.length; i++) {
+            skipFrom[i] = from.get(i);
+            skipTo[i] = to.get(i);
+        }
+        return new ByteMask(encoded, skipFrom, skipTo);
+    }
+
+    private static boolean isFixedSize(Field field) {
+        return field instanceof OneByte || field instanceof TwoBytes || field instanceof FourBytes
+                || field instanceof EightBytes || field instanceof IP;
+    }
+
+    /**
+     * @param data raw response
+     * @return true if data equals the expected bytes outside the don't-care fields
+     */
+    boolean matches(byte[] data) {
+        byte[] e = expected;
+        if (data.length != e.length) {
+            return false;
+        }
+        int pos = 0;
+        for (int r = 0; r <= skipFrom.length; r++) {
+            int end = r < skipFrom.length ? skipFrom[r] : e.length;
+            for (int i = pos; i < end; i++) {
+                if (data[i] != e[i]) {
+                    return false;
+                }
+            }
+            if (r < skipFrom.length) {
+                pos = skipTo[r];
+            }
+        }
+        return true;
+    }
+}
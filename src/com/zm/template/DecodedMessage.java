@@ -0,0 +1,34 @@
+package com.zm.template;
+
+import com.zm.message.Message;
+
+/**
+ * A response decoded by {@link ExpectedMessage#decode(byte[])}.
+ */
+public final class DecodedMessage {
+
+    private final Message message;
+
+    private final int left;
+
+    DecodedMessage(Message message, int left) {
+        this.message = message;
+        this.left = left;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * @return number of response bytes after the last decoded field
+     */
+    public int dataCntLeftToDecode() {
+        return left;
+    }
+
+    @Override
+    public String toString() {
+        return message.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package com.zm.template;
+
+import com.zm.Field.CompareResult;
+import com.zm.encryption.Encrypt;
+import com.zm.message.BufferMgr;
+import com.zm.message.Message;
+import com.zm.message.MsgConfig;
+import com.zm.utils.U;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * The expected message of a {@link org.apache.jmeter.assertions.P2PAssertion},
+ * parsed and encoded once per resolved template text.
+ *
+ * The expected {@link Message} is only read after construction, so one instance
+ * is shared by all threads. Responses are decoded into a per-thread {@link Message}
+ * of the same layout, which is re-used between samples.
+ *
+ * When possible the template is also compiled into a {@link ByteMask}, so that a
+ * passing response can be recognized by {@link #quickMatch(byte[])} without decoding.
+ */
+public final class ExpectedMessage {
+
+    private static final int cacheSize = JMeterUtils.getPropDefault("p2p.assertion.cache.size", 64); // $NON_NLS-1$
+
+    private static final LruCache<String, ExpectedMessage> CACHE = new LruCache<String, ExpectedMessage>(cacheSize);
+
+    private final String text;
+
+    private final Message expect;
+
+    private final boolean cacheable;
+
+    // http头和加密的消息需要Message.decode()，不能直接解码各个块
+    private final boolean direct;
+
+    private final ThreadLocal<Message> facts = new ThreadLocal<Message>();
+
+    private volatile FieldExtractor extractor;
+
+    // null时每个响应都要解码比较
+    private final ByteMask mask;
+
+    private ExpectedMessage(String text, boolean cacheable) {
+        this.text = text;
+        this.cacheable = cacheable;
+        this.expect = new Message(text);
+        byte[] encoded = this.expect.encode();
+
+        String http = U.getHttpHeaderSec(text);
+        MsgConfig config = U.getMsgConfig(text);
+        this.direct = (http == null || http.length() == 0)
+                && (config.encrypt == null || config.encrypt == Encrypt.NONE);
+        this.mask = direct ? compileMask(encoded) : null;
+    }
+
+    /**
+     * The mask is only used if the expected bytes themselves decode to a passing message,
+     * which makes every response that {@link ByteMask#matches(byte[]) matches} pass too.
+     */
+    private ByteMask compileMask(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            return null;
+        }
+        ByteMask compiled = ByteMask.compile(expect, encoded);
+        if (compiled == null) {
+            return null;
+        }
+        try {
+            DecodedMessage self = decodeNew(encoded.clone());
+            if (self.dataCntLeftToDecode() == 0 && compare(self).equal) {
+                return compiled;
+            }
+        } catch (RuntimeException e) {
+            // 无法验证，不用快速比较
+        }
+        return null;
+    }
+
+    /**
+     * Checks a response against the expected bytes in one pass, without decoding.
+     * A false result is not a failure: the response must then be decoded and compared.
+     *
+     * @param data raw response
+     * @return true if the response certainly passes {@link #compare(DecodedMessage)}
+     */
+    public boolean quickMatch(byte[] data) {
+        return mask != null && mask.matches(data);
+    }
+
+    /**
+     * Returns the compiled expectation for a template, from the shared cache if possible.
+     *
+     * @param text expected template, after JMeter variable substitution
+     * @return the compiled expectation
+     */
+    public static ExpectedMessage forText(String text) {
+        // super.xxx 的值随上一个请求变化，每次重新解析
+        if (text.indexOf("super.") != -1 || !CACHE.isEnabled()) {
+            CACHE.recordMiss();
+            return new ExpectedMessage(text, false);
+        }
+        ExpectedMessage expected = CACHE.get(text);
+        if (expected == null) {
+            expected = new ExpectedMessage(text, true);
+            CACHE.put(text, expected);
+        }
+        return expected;
+    }
+
+    /**
+     * @param resolvedText expected template, after JMeter variable substitution
+     * @return true if this expectation can be used for {@code resolvedText} without compiling again
+     */
+    public boolean matches(String resolvedText) {
+        return cacheable && text.equals(resolvedText);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the expected message; must not be modified
+     */
+    public Message getExpected() {
+        return expect;
+    }
+
+    /**
+     * Decodes a response with the layout of the expected message.
+     * The returned message belongs to the calling thread and is overwritten
+     * by its next call to this method.
+     *
+     * @param data raw response
+     * @return the decoded response
+     * @throws IllegalStateException if the response does not match the layout
+     */
+    public DecodedMessage decode(byte[] data) {
+        if (!direct) {
+            return decodeNew(data);
+        }
+        Message fact = facts.get();
+        if (fact == null) {
+            fact = new Message(text, new byte[0]);
+            facts.set(fact);
+        }
+        BufferMgr mgr = new BufferMgr(data);
+        try {
+            if (fact.longHeader != null) {
+                fact.longHeader.decode(mgr);
+            }
+            if (fact.header != null) {
+                fact.header.decode(mgr);
+            }
+            if (fact.msgBody != null) {
+                fact.msgBody.decode(mgr);
+            }
+        } catch (RuntimeException e) {
+            // 复用的消息里残留着上次的值，用新消息解码得到原来的错误信息
+            facts.remove();
+            return decodeNew(data);
+        }
+        return new DecodedMessage(fact, mgr.dataCntLeftToDecode());
+    }
+
+    private DecodedMessage decodeNew(byte[] data) {
+        Message fact = new Message(text, data);
+        fact.decode();
+        return new DecodedMessage(fact, fact.dataCntLeftToDecode());
+    }
+
+    /**
+     * @param fact decoded response
+     * @return result of comparing the expected message with {@code fact}
+     */
+    public CompareResult compare(DecodedMessage fact) {
+        return expect.compare(fact.getMessage());
+    }
+
+    /**
+     * Returns the extractor for a list of variable names, compiled once for this template.
+     *
+     * @param propertyTxt comma separated variable names
+     * @return the extractor
+     */
+    public FieldExtractor getExtractor(String propertyTxt) {
+        FieldExtractor current = extractor;
+        if (current == null || !current.getPropertyTxt().equals(propertyTxt)) {
+            current = FieldExtractor.compile(propertyTxt, expect);
+            extractor = current;
+        }
+        return current;
+    }
+
+    public static long getCacheHits() {
+        return CACHE.getHits();
+    }
+
+    public static long getCacheMisses() {
+        return CACHE.getMisses();
+    }
+}
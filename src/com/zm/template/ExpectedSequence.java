@@ -0,0 +1,153 @@
+package com.zm.template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.zm.frame.FrameFormat;
+import com.zm.frame.FrameSplitter;
+
+/**
+ * The expected messages of a {@link org.apache.jmeter.assertions.P2PAssertion} whose
+ * response holds several length-framed messages.
+ *
+ * The templates are written one after the other, separated by a line holding only
+ * {@value #SEPARATOR}. The response is split into messages with the len field of the
+ * first template, or the "p2p.tcp.lengthField*" properties if set (see {@link FrameFormat}),
+ * and each message is checked against its own template: the n-th message against the
+ * n-th template, or in any order if the messages may arrive in any order.
+ */
+public final class ExpectedSequence {
+
+    /** Line separating the templates. */
+    public static final String SEPARATOR = "---";
+
+    private static final Pattern SEPARATOR_LINE = Pattern.compile("^[ \\t]*---[ \\t]*\\r?$", Pattern.MULTILINE);
+
+    private final String text;
+
+    private final boolean cacheable;
+
+    private final ExpectedMessage[] messages;
+
+    // null时无法拆分响应
+    private final FrameFormat format;
+
+    private ExpectedSequence(String text) {
+        this.text = text;
+        this.cacheable = text.indexOf("super.") == -1;
+        List<ExpectedMessage> list = new ArrayList<ExpectedMessage>();
+        for (String part : SEPARATOR_LINE.split(text)) {
+            if (part.trim().length() > 0) {
+                list.add(ExpectedMessage.forText(part.trim()));
+            }
+        }
+        this.messages = list.toArray(new ExpectedMessage[list.size()]);
+        FrameFormat f = FrameFormat.fromProperties();
+        if (f == null && messages.length > 0) {
+            f = FrameFormat.fromTemplate(messages[0].getText());
+        }
+        this.format = f;
+    }
+
+    /**
+     * @param text expected text of the assertion
+     * @return true if the text holds several templates
+     */
+    public static boolean isSequence(String text) {
+        return text.indexOf(SEPARATOR) != -1 && SEPARATOR_LINE.matcher(text).find();
+    }
+
+    /**
+     * @param text expected templates, after JMeter variable substitution
+     * @return the compiled expectation; the templates come from the cache of {@link ExpectedMessage}
+     */
+    public static ExpectedSequence forText(String text) {
+        return new ExpectedSequence(text);
+    }
+
+    /**
+     * @param resolvedText expected templates, after JMeter variable substitution
+     * @return true if this expectation can be used for {@code resolvedText} without compiling again
+     */
+    public boolean matches(String resolvedText) {
+        return cacheable && text.equals(resolvedText);
+    }
+
+    public int size() {
+        return messages.length;
+    }
+
+    public ExpectedMessage get(int index) {
+        return messages[index];
+    }
+
+    /**
+     * @param data raw response
+     * @return the messages of the response
+     * @throws IllegalStateException if the response cannot be split
+     */
+    public List<byte[]> split(byte[] data) {
+        if (format == null) {
+            throw new IllegalStateException("第一个预期消息的头部没有len字段，无法拆分响应，可设置p2p.tcp.lengthField*属性");
+        }
+        return FrameSplitter.split(data, format);
+    }
+
+    /**
+     * Assigns a template to every message, for messages that may arrive in any order.
+     * Each template is used by at most one message.
+     *
+     * @param frames messages of the response, see {@link #split(byte[])}
+     * @return index of the template of each message, or -1 where no template is left that it matches
+     */
+    public int[] assign(List<byte[]> frames) {
+        int n = frames.size();
+        boolean[][] pass = new boolean[n][messages.length];
+        for (int i = 0; i < n; i++) {
+            for (int t = 0; t < messages.length; t++) {
+                pass[i][t] = passes(messages[t], frames.get(i));
+            }
+        }
+        // 二分图最大匹配：通配模板可能匹配多个消息，贪心分配会漏掉可行的组合
+        int[] owner = new int[messages.length];
+        Arrays.fill(owner, -1);
+        for (int i = 0; i < n; i++) {
+            augment(i, pass, owner, new boolean[messages.length]);
+        }
+        int[] assigned = new int[n];
+        Arrays.fill(assigned, -1);
+        for (int t = 0; t < messages.length; t++) {
+            if (owner[t] >= 0) {
+                assigned[owner[t]] = t;
+            }
+        }
+        return assigned;
+    }
+
+    private static boolean augment(int frame, boolean[][] pass, int[] owner, boolean[] visited) {
+        for (int t = 0; t < owner.length; t++) {
+            if (pass[frame][t] && !visited[t]) {
+                visited[t] = true;
+                if (owner[t] < 0 || augment(owner[t], pass, owner, visited)) {
+                    owner[t] = frame;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean passes(ExpectedMessage expected, byte[] frame) {
+        if (expected.quickMatch(frame)) {
+            return true;
+        }
+        try {
+            DecodedMessage fact = expected.decode(frame);
+            return fact.dataCntLeftToDecode() == 0 && expected.compare(fact).equal;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
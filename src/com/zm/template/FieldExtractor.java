@@ -0,0 +1,116 @@
+package com.zm.template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zm.Field.Field;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+import org.apache.jmeter.threads.JMeterVariables;
+
+/**
+ * Copies decoded field values into JMeter variables.
+ *
+ * A requested name matches a field with the same name, or the same name followed
+ * by digits (item1, item2, ... for arrays), ignoring case. All matching values are
+ * stored in one variable, tab separated, in message order; "NOT_FOUND" if there is none.
+ * Field positions are looked up once per template, so extraction only reads the
+ * decoded fields and never renders the message as text.
+ */
+public final class FieldExtractor {
+
+    public static final String NOT_FOUND = "NOT_FOUND"; // $NON-NLS-1$
+
+    private static final int[] NO_REFS = new int[0];
+
+    private final String propertyTxt;
+
+    private final String[] names;
+
+    // 每个名字对应的字段位置：块序号 << 16 | 字段序号
+    private final int[][] refs;
+
+    private FieldExtractor(String propertyTxt, String[] names, int[][] refs) {
+        this.propertyTxt = propertyTxt;
+        this.names = names;
+        this.refs = refs;
+    }
+
+    /**
+     * @param propertyTxt comma separated variable names
+     * @param layout any message with the layout of the decoded responses
+     * @return the extractor
+     */
+    static FieldExtractor compile(String propertyTxt, Message layout) {
+        List<String> nameList = new ArrayList<String>();
+        for (String name : propertyTxt.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                nameList.add(name);
+            }
+        }
+        String[] names = nameList.toArray(new String[nameList.size()]);
+
+        MsgBlock[] blocks = {layout.longHeader, layout.header, layout.msgBody};
+        int[][] refs = new int[names.length][];
+        for (int n = 0; n < names.length; n++) {
+            List<Integer> found = new ArrayList<Integer>();
+            for (int b = 0; b < blocks.length; b++) {
+                if (blocks[b] == null) {
+                    continue;
+                }
+                ArrayList<Field> list = blocks[b].list;
+                for (int i = 0; i < list.size(); i++) {
+                    if (matches(names[n], list.get(i).getName())) {
+                        found.add(b << 16 | i);
+                    }
+                }
+            }
+            refs[n] = found.isEmpty() ? NO_REFS : new int[found.size()];
+            for (int i = 0; i < found.size(); i++) {
+                refs[n][i] = found.get(i);
+            }
+        }
+        return new FieldExtractor(propertyTxt, names, refs);
+    }
+
+    private static boolean matches(String name, String fieldName) {
+        if (fieldName.length() < name.length() || !fieldName.regionMatches(true, 0, name, 0, name.length())) {
+            return false;
+        }
+        for (int i = name.length(); i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getPropertyTxt() {
+        return propertyTxt;
+    }
+
+    /**
+     * @param fact decoded response, with the layout this extractor was compiled for
+     * @param vars variables of the current thread
+     */
+    public void extract(Message fact, JMeterVariables vars) {
+        MsgBlock[] blocks = {fact.longHeader, fact.header, fact.msgBody};
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < names.length; n++) {
+            sb.setLength(0);
+            for (int ref : refs[n]) {
+                String value = blocks[ref >>> 16].list.get(ref & 0xffff).getStrValue();
+                if (value == null || (value = value.trim()).length() == 0) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append('\t');
+                }
+                sb.append(value);
+            }
+            vars.put(names[n], sb.length() == 0 ? NOT_FOUND : sb.toString());
+        }
+    }
+}
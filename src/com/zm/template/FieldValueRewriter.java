@@ -0,0 +1,65 @@
+package com.zm.template;
+
+/**
+ * Replaces the value of one [lhead] or [head] field in a template text,
+ * e.g. to give every pipelined request its own sequence number.
+ *
+ * The template is split once around the value; {@link #withValue(String)}
+ * only concatenates, and the result keeps the layout of the original, so
+ * {@link MessageTemplateCache} re-binds it instead of parsing it again.
+ */
+public final class FieldValueRewriter {
+
+    private final String before;
+
+    private final String after;
+
+    private FieldValueRewriter(String before, String after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @param text template text
+     * @param name field name
+     * @return the rewriter, or null if the long header and header have no field {@code name}
+     */
+    public static FieldValueRewriter forField(String text, String name) {
+        int section = -1;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            String line = text.substring(start, end);
+            int comment = line.indexOf('#');
+            if (comment != -1) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.startsWith("[") && line.endsWith("]")) {
+                section = TemplateLayout.sectionOf(line.substring(1, line.length() - 1).trim().toLowerCase());
+            } else if (section == TemplateLayout.LONG_HEADER || section == TemplateLayout.HEADER) {
+                String field = TemplateLayout.removeWhitespace(line);
+                int at = field.indexOf('@');
+                int eq = field.indexOf('=');
+                if (at != -1 && eq > at && field.substring(at + 1, eq).equals(name)) {
+                    // 去掉该行的注释，其他内容保持不变
+                    return new FieldValueRewriter(text.substring(0, start) + field.substring(0, eq + 1),
+                            text.substring(end));
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @param value new value of the field
+     * @return the template text with the new value
+     */
+    public String withValue(String value) {
+        return before + value + after;
+    }
+}
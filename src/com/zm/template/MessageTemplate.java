@@ -0,0 +1,123 @@
+package com.zm.template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.zm.Field.Field;
+import com.zm.message.Message;
+import com.zm.message.MsgBlock;
+
+/**
+ * A parsed P2P message template.
+ *
+ * Holds one {@link Message} built from the first template text seen for a
+ * {@link TemplateLayout}. Later texts with the same layout are encoded by
+ * setting only the field values that changed and recomputing the len fields,
+ * the same way the {@link Message} constructor does.
+ *
+ * Instances are shared between JMeter threads; {@link #encode(TemplateLayout)}
+ * is synchronized because the underlying {@link Message} is mutable.
+ */
+public final class MessageTemplate {
+
+    private final Message message;
+    private final Field[][] fields;
+    private final String[][] bound;
+    private final boolean reuseBytes;
+    private byte[] encoded;
+
+    private MessageTemplate(Message message, Field[][] fields, String[][] bound, boolean reuseBytes, byte[] encoded) {
+        this.message = message;
+        this.fields = fields;
+        this.bound = bound;
+        this.reuseBytes = reuseBytes;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Parses the template text once.
+     *
+     * @param text template text
+     * @param layout layout of {@code text}, must be cacheable
+     * @return the compiled template, or null if the parsed message does not
+     * line up with the layout and the text has to be parsed on every use
+     */
+    static MessageTemplate compile(String text, TemplateLayout layout) {
+        Message message = new Message(text);
+        byte[] encoded = message.encode();
+
+        MsgBlock[] blocks = blocks(message);
+        Field[][] fields = new Field[3][];
+        String[][] bound = new String[3][];
+        for (int i = 0; i < 3; i++) {
+            String[] values = layout.getValues(i);
+            if (!layout.isRebindable()) {
+                fields[i] = new Field[0];
+            } else {
+                ArrayList<Field> list = blocks[i] == null ? new ArrayList<Field>() : blocks[i].list;
+                if (list.size() != values.length) {
+                    return null;
+                }
+                fields[i] = list.toArray(new Field[list.size()]);
+            }
+            bound[i] = values.clone();
+        }
+        return new MessageTemplate(message, fields, bound, !layout.isEncrypted(), encoded);
+    }
+
+    private static MsgBlock[] blocks(Message message) {
+        MsgBlock[] blocks = new MsgBlock[3];
+        blocks[TemplateLayout.LONG_HEADER] = message.longHeader;
+        blocks[TemplateLayout.HEADER] = message.header;
+        blocks[TemplateLayout.BODY] = message.msgBody;
+        return blocks;
+    }
+
+    /**
+     * Encodes the template with the field values of {@code layout}.
+     * The returned array may be shared with other callers and must not be modified.
+     *
+     * @param layout layout with the same key as the one this template was compiled from
+     * @return encoded message
+     */
+    public synchronized byte[] encode(TemplateLayout layout) {
+        boolean changed = false;
+        try {
+            for (int b = 0; b < 3; b++) {
+                String[] values = layout.getValues(b);
+                for (int i = 0; i < fields[b].length; i++) {
+                    if (!values[i].equals(bound[b][i])) {
+                        fields[b][i].setOriginValue(values[i]);
+                        bound[b][i] = values[i];
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                updateLengths();
+            }
+            if (changed || !reuseBytes) {
+                encoded = message.encode();
+            }
+            return encoded;
+        } catch (RuntimeException e) {
+            // 绑定失败后字段状态不确定，下次全部重新绑定
+            for (String[] values : bound) {
+                Arrays.fill(values, null);
+            }
+            throw e;
+        }
+    }
+
+    /** Same order and arithmetic as the len handling in the {@link Message} constructor. */
+    private void updateLengths() {
+        int bodyLen = message.msgBody == null ? 0 : message.msgBody.getLen();
+        if (message.header != null) {
+            message.header.setBodyLen(bodyLen);
+        }
+        if (message.longHeader != null) {
+            int len = bodyLen + (message.header == null ? 0 : message.header.getLen());
+            message.longHeader.setBodyLen(len);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.zm.template;
+
+import com.zm.message.Message;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Bounded LRU cache of {@link MessageTemplate}s shared by the P2P samplers.
+ *
+ * Templates are looked up by {@link TemplateLayout#getKey()}, so parameterized
+ * templates that only differ in field values share one parsed message.
+ * The size is set by the property "p2p.template.cache.size" (0 disables the cache).
+ */
+public final class MessageTemplateCache {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final int cacheSize = JMeterUtils.getPropDefault("p2p.template.cache.size", 256); // $NON_NLS-1$
+
+    private static final MessageTemplateCache INSTANCE = new MessageTemplateCache(cacheSize);
+
+    private final LruCache<String, MessageTemplate> templates;
+
+    public MessageTemplateCache(int maxSize) {
+        this.templates = new LruCache<String, MessageTemplate>(maxSize);
+    }
+
+    public static MessageTemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Encodes a template, re-using a cached parse when one with the same layout exists.
+     * The returned array may be shared with other callers and must not be modified.
+     *
+     * @param text template text
+     * @return encoded message
+     */
+    public byte[] encode(String text) {
+        TemplateLayout layout = TemplateLayout.scan(text);
+        if (!templates.isEnabled() || !layout.isCacheable()) {
+            templates.recordMiss();
+            return new Message(text).encode();
+        }
+
+        MessageTemplate template = templates.get(layout.getKey());
+        if (template != null) {
+            return template.encode(layout);
+        }
+
+        template = MessageTemplate.compile(text, layout);
+        if (template == null) {
+            return new Message(text).encode();
+        }
+        templates.put(layout.getKey(), template);
+        if (log.isDebugEnabled()) {
+            log.debug("Template cache: " + templates);
+        }
+        return template.encode(layout);
+    }
+
+    public long getHits() {
+        return templates.getHits();
+    }
+
+    public long getMisses() {
+        return templates.getMisses();
+    }
+
+    public long getEvictions() {
+        return templates.getEvictions();
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    public void clear() {
+        templates.clear();
+    }
+}
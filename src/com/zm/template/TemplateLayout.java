@@ -0,0 +1,245 @@
+package com.zm.template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a single linear scan over a P2P message template.
+ *
+ * The scan splits the template into its structure (section names, config lines,
+ * field types and names) and the values of the [lhead]/[head]/[body] fields.
+ * Two templates with the same {@link #getKey() key} only differ in field values,
+ * so they can share one parsed {@link com.zm.message.Message} and be re-bound.
+ *
+ * The scan is deliberately conservative: anything the regex based parser in
+ * {@link com.zm.utils.Utils} could read differently (http sections, brackets
+ * inside lines, repeated sections, '|' characters) makes the layout exact-text only.
+ */
+public final class TemplateLayout {
+
+    static final int LONG_HEADER = 0;
+    static final int HEADER = 1;
+    static final int BODY = 2;
+    private static final int CONFIG = 3;
+    private static final int HTTP = 4;
+    private static final int OTHER = 5;
+    private static final int NONE = -1;
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final String key;
+    private final String[][] values;
+    private final boolean cacheable;
+    private final boolean rebindable;
+    private final boolean encrypted;
+
+    private TemplateLayout(String key, String[][] values, boolean cacheable, boolean rebindable, boolean encrypted) {
+        this.key = key;
+        this.values = values;
+        this.cacheable = cacheable;
+        this.rebindable = rebindable;
+        this.encrypted = encrypted;
+    }
+
+    /**
+     * Scans a template. Never throws; templates that can not be handled here are
+     * reported as not cacheable and must go through {@code new Message(text)}.
+     *
+     * @param text template text, after JMeter variable substitution
+     * @return layout of the template
+     */
+    public static TemplateLayout scan(String text) {
+        // super.xxx 取的是上一个请求的值，每次都可能不同，不能缓存
+        if (text == null || text.indexOf("super.") != -1) {
+            return uncacheable(text);
+        }
+        if (text.indexOf('|') != -1) {
+            return exactText(text, false);
+        }
+
+        StringBuilder key = new StringBuilder(text.length());
+        List<List<String>> blocks = new ArrayList<List<String>>(3);
+        for (int i = 0; i < 3; i++) {
+            blocks.add(new ArrayList<String>());
+        }
+        boolean[] seen = new boolean[OTHER];
+        boolean encrypted = false;
+        int section = NONE;
+
+        for (String raw : text.split("\n")) {
+            String line = raw;
+            int comment = line.indexOf('#');
+            if (comment != -1) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+
+            if (line.charAt(0) == '[') {
+                int end = line.indexOf(']');
+                if (end != line.length() - 1 || line.indexOf('[', 1) != -1) {
+                    return exactText(text, encrypted);
+                }
+                section = sectionOf(line.substring(1, end).trim().toLowerCase());
+                if (section == HTTP) {
+                    return exactText(text, encrypted);
+                }
+                if (section != OTHER) {
+                    if (seen[section]) {
+                        return exactText(text, encrypted);
+                    }
+                    seen[section] = true;
+                }
+                key.append(line).append('\n');
+                continue;
+            }
+            if (line.indexOf('[') != -1 || line.indexOf(']') != -1) {
+                return exactText(text, encrypted);
+            }
+
+            switch (section) {
+                case NONE:
+                    // 第一个段之前的内容（如读取次数）不参与编码
+                    break;
+                case LONG_HEADER:
+                case HEADER:
+                case BODY:
+                    String field = removeWhitespace(line);
+                    int eq = field.indexOf('=');
+                    if (eq <= 0 || eq == field.length() - 1) {
+                        return uncacheable(text);
+                    }
+                    String name = field.substring(0, eq + 1);
+                    String value = field.substring(eq + 1);
+                    key.append(name);
+                    if ("*".equals(value) || isHttpBody(name)) {
+                        // '*' changes valueCare, HttpBody keeps its length from construction
+                        key.append(value);
+                    } else if (!isValidValue(value)) {
+                        return uncacheable(text);
+                    }
+                    key.append('\n');
+                    blocks.get(section).add(value);
+                    break;
+                case CONFIG:
+                    String conf = removeWhitespace(line).toLowerCase();
+                    if (conf.startsWith("encrypt=") && !conf.equals("encrypt=none")) {
+                        encrypted = true;
+                    }
+                    key.append(line).append('\n');
+                    break;
+                default:
+                    key.append(line).append('\n');
+                    break;
+            }
+        }
+
+        String[][] values = new String[3][];
+        for (int i = 0; i < 3; i++) {
+            values[i] = blocks.get(i).toArray(NO_VALUES);
+        }
+        return new TemplateLayout(key.toString(), values, true, true, encrypted);
+    }
+
+    private static TemplateLayout exactText(String text, boolean encrypted) {
+        // 以\0开头，不会与可重新绑定的结构key冲突
+        return new TemplateLayout('\0' + text, new String[][]{NO_VALUES, NO_VALUES, NO_VALUES},
+                true, false, encrypted);
+    }
+
+    private static TemplateLayout uncacheable(String text) {
+        return new TemplateLayout(text, null, false, false, false);
+    }
+
+    static int sectionOf(String name) {
+        if (name.equals("lhead") || name.equals("lheader") || name.equals("l") || name.equals("longheader")) {
+            return LONG_HEADER;
+        }
+        if (name.equals("head") || name.equals("header") || name.equals("h")) {
+            return HEADER;
+        }
+        if (name.equals("body") || name.equals("b")) {
+            return BODY;
+        }
+        if (name.equals("config") || name.equals("conf") || name.equals("c")) {
+            return CONFIG;
+        }
+        if (name.equals("http") || name.equals("httpheader")) {
+            return HTTP;
+        }
+        return OTHER;
+    }
+
+    private static boolean isHttpBody(String name) {
+        int type = name.length() > 0 && "^~!".indexOf(name.charAt(0)) != -1 ? 1 : 0;
+        return type < name.length() && Character.toLowerCase(name.charAt(type)) == 'b';
+    }
+
+    /** Same character set as the value group of the field regex in {@link com.zm.utils.Utils}. */
+    private static boolean isValidValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean ok = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || c == '&' || c == '=' || c == ':' || c == '-' || c == '.' || c == '/' || c == '\\';
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String removeWhitespace(String line) {
+        StringBuilder sb = null;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                if (sb == null) {
+                    sb = new StringBuilder(line.length());
+                    sb.append(line, 0, i);
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? line : sb.toString();
+    }
+
+    /**
+     * @return cache key: the structure of the template for re-bindable layouts,
+     * otherwise the full text
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @param block one of {@link #LONG_HEADER}, {@link #HEADER} or {@link #BODY}
+     * @return field values of the block, in template order
+     */
+    String[] getValues(int block) {
+        return values[block];
+    }
+
+    /**
+     * @return false if the template must be parsed on every use
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @return true if templates with the same key can be re-bound field by field
+     */
+    public boolean isRebindable() {
+        return rebindable;
+    }
+
+    /**
+     * @return true if the [config] section asks for encryption
+     */
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+}
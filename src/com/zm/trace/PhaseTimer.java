@@ -0,0 +1,112 @@
+package com.zm.trace;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Per-thread breakdown of the time of one P2P exchange into phases.
+ *
+ * The TCP client and the assertion measure their phases with {@link System#nanoTime()}
+ * and publish them as JMeter variables "p2p.phase.&lt;name&gt;" in microseconds, for example
+ * p2p.phase.firstByte. Add them to the "sample_variables" property to save them with the
+ * results. A sample costs a few nanoTime calls and variable updates.
+ *
+ * Every sample starts by clearing the phases; phases a failed sample did not reach are
+ * published empty, so they never show the numbers of an earlier sample.
+ *
+ * Enabled by the property "p2p.phases" (default false).
+ */
+public final class PhaseTimer {
+
+    /** Template parse and encode. */
+    public static final int ENCODE = 0;
+    /** Socket write and flush. */
+    public static final int WRITE = 1;
+    /** From the end of the write to the first response byte. */
+    public static final int FIRST_BYTE = 2;
+    /** From the first response byte to the end of the response. */
+    public static final int READ = 3;
+    /** Conversion of the response to the response string. */
+    public static final int CONVERT = 4;
+    /** Assertion: decoding the response with the expected template. */
+    public static final int DECODE = 5;
+    /** Assertion: comparing with the expected message. */
+    public static final int COMPARE = 6;
+
+    private static final String[] VARIABLES = {
+            "p2p.phase.encode", "p2p.phase.write", "p2p.phase.firstByte", "p2p.phase.read", // $NON-NLS-1$
+            "p2p.phase.convert", "p2p.phase.decode", "p2p.phase.compare"}; // $NON-NLS-1$
+
+    private static final boolean enabled = JMeterUtils.getPropDefault("p2p.phases", false); // $NON_NLS-1$
+
+    private static final ThreadLocal<PhaseTimer> timers = new ThreadLocal<PhaseTimer>() {
+        @Override
+        protected PhaseTimer initialValue() {
+            return new PhaseTimer();
+        }
+    };
+
+    // -1表示本次没有记录
+    private final long[] nanos = new long[VARIABLES.length];
+
+    private PhaseTimer() {
+        clear(ENCODE, COMPARE);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the timer of the calling thread
+     */
+    public static PhaseTimer current() {
+        return timers.get();
+    }
+
+    /**
+     * @param phase one of the constants of this class
+     * @param start {@link System#nanoTime()} at the start of the phase
+     * @param end {@link System#nanoTime()} at the end of the phase
+     */
+    public void record(int phase, long start, long end) {
+        nanos[phase] = end - start;
+    }
+
+    /**
+     * Marks the phases from first to last, inclusive, as not recorded.
+     */
+    public void clear(int first, int last) {
+        for (int i = first; i <= last; i++) {
+            nanos[i] = -1;
+        }
+    }
+
+    /**
+     * @return true if the phase was recorded since it was last cleared
+     */
+    public boolean isRecorded(int phase) {
+        return nanos[phase] >= 0;
+    }
+
+    /**
+     * @return duration of the phase in nanoseconds, as last recorded by this thread, or -1
+     */
+    public long get(int phase) {
+        return nanos[phase];
+    }
+
+    /**
+     * Publishes the phases from first to last, inclusive; phases not recorded are empty.
+     *
+     * @param vars variables of the thread, nothing is published if null
+     */
+    public void publish(JMeterVariables vars, int first, int last) {
+        if (vars == null) {
+            return;
+        }
+        for (int i = first; i <= last; i++) {
+            vars.put(VARIABLES[i], nanos[i] >= 0 ? Long.toString(nanos[i] / 1000) : "");
+        }
+    }
+}
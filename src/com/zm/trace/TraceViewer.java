@@ -0,0 +1,135 @@
+package com.zm.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zm.template.ExpectedMessage;
+import com.zm.utils.BU;
+
+/**
+ * Prints a trace file written by {@link WireTracer}.
+ *
+ * <pre>
+ * java com.zm.trace.TraceViewer p2p-wire.trace [kind ...]
+ * </pre>
+ * Kinds are tcp-out, tcp-in, udp-out, udp-in, decoded and template; without kinds all
+ * packets are printed. Decoded responses are decoded here, with the template traced
+ * before them; if it is missing, for example dropped, they are printed in hex.
+ */
+public final class TraceViewer {
+
+    private static final String[] KIND_NAMES = {"?", "tcp-out", "tcp-in", "udp-out", "udp-in", "decoded", "template"};
+
+    private TraceViewer() {
+    }
+
+    /**
+     * @param file trace file
+     * @param out output
+     * @param kinds kinds to print, all if null
+     * @return number of packets printed
+     * @throws IOException if the file cannot be read or is not a trace file
+     */
+    public static int print(String file, PrintStream out, boolean[] kinds) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != WireTracer.MAGIC) {
+                throw new IOException(file + " is not a trace file");
+            }
+            int version = in.readInt();
+            if (version != WireTracer.VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            long startMillis = in.readLong();
+            long startNanos = in.readLong();
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            int count = 0;
+            Map<Integer, String> templates = new HashMap<Integer, String>();
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long time = in.readLong();
+                long thread = in.readLong();
+                byte[] packet = new byte[in.readInt()];
+                in.readFully(packet);
+                if (kind == WireTracer.TEMPLATE) {
+                    templates.put(readInt(packet), new String(packet, 4, packet.length - 4, "UTF-8"));
+                }
+                if (kinds != null && (kind >= kinds.length || !kinds[kind])) {
+                    continue;
+                }
+                long nanos = time - startNanos;
+                String name = kind < KIND_NAMES.length ? KIND_NAMES[kind] : String.valueOf(kind);
+                out.println("==== " + format.format(new Date(startMillis + nanos / 1000000))
+                        + String.format(" +%.6fs", nanos / 1e9) + " thread " + thread + " " + name
+                        + " " + packet.length + " bytes");
+                if (kind == WireTracer.DECODED) {
+                    out.println(decode(packet, templates));
+                } else if (kind == WireTracer.TEMPLATE) {
+                    int id = readInt(packet);
+                    out.println("#" + id + "\n" + templates.get(id));
+                } else {
+                    out.println(BU.bytes2HexGoodLook(packet, 0, packet.length));
+                }
+                count++;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the response decoded with its template, or the template id and the response in hex
+     */
+    private static String decode(byte[] packet, Map<Integer, String> templates) {
+        int id = readInt(packet);
+        byte[] data = new byte[packet.length - 4];
+        System.arraycopy(packet, 4, data, 0, data.length);
+        String template = templates.get(id);
+        String error = "template #" + id + " not in trace";
+        if (template != null) {
+            try {
+                return ExpectedMessage.forText(template).decode(data).toString();
+            } catch (RuntimeException e) {
+                error = "cannot decode with template #" + id + ": " + e;
+            }
+        }
+        return error + "\n" + BU.bytes2HexGoodLook(data, 0, data.length);
+    }
+
+    private static int readInt(byte[] packet) {
+        return (packet[0] & 0xff) << 24 | (packet[1] & 0xff) << 16 | (packet[2] & 0xff) << 8 | (packet[3] & 0xff);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceViewer file [tcp-out|tcp-in|udp-out|udp-in|decoded|template ...]");
+            System.exit(1);
+        }
+        boolean[] kinds = null;
+        if (args.length > 1) {
+            kinds = new boolean[KIND_NAMES.length];
+            for (int i = 1; i < args.length; i++) {
+                for (int k = 1; k < KIND_NAMES.length; k++) {
+                    if (KIND_NAMES[k].equalsIgnoreCase(args[i])) {
+                        kinds[k] = true;
+                    }
+                }
+            }
+        }
+        print(args[0], System.out, kinds);
+    }
+}
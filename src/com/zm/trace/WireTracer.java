@@ -0,0 +1,341 @@
+package com.zm.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Records raw P2P packets to a binary trace file without blocking the samplers.
+ *
+ * Samplers copy a packet and a {@link System#nanoTime()} stamp into a lock-free ring;
+ * a background thread writes the ring to the file. When the ring is full, packets are
+ * dropped and counted. The file is read with {@link TraceViewer}.
+ *
+ * Properties:
+ * "p2p.trace.sampleEvery" traces one exchange in N on average (default 0: tracing off, 1: all),
+ * "p2p.trace.file" trace file (default p2p-wire.trace),
+ * "p2p.trace.ringSize" number of packets the ring holds, rounded up to a power of two (default 8192),
+ * "p2p.trace.maxFileSize" bytes after which further packets are dropped (default 256 MB).
+ */
+public final class WireTracer {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final byte TCP_OUT = 1;
+    public static final byte TCP_IN = 2;
+    public static final byte UDP_OUT = 3;
+    public static final byte UDP_IN = 4;
+    /** Response checked by the assertion: template id (int) and raw bytes; {@link TraceViewer} decodes it. */
+    public static final byte DECODED = 5;
+    /** Template of the assertion: id (int) and UTF-8 text, traced before its first response. */
+    public static final byte TEMPLATE = 6;
+
+    static final int MAGIC = 0x50325054; // "P2PT"
+    static final int VERSION = 2;
+
+    // 模板带变量时每次都不同，超过后清空重新编号
+    private static final int MAX_TEMPLATES = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int sampleEvery = JMeterUtils.getPropDefault("p2p.trace.sampleEvery", 0); // $NON_NLS-1$
+
+    private static final String fileName = JMeterUtils.getPropDefault("p2p.trace.file", "p2p-wire.trace"); // $NON_NLS-1$
+
+    private static final int ringSize = JMeterUtils.getPropDefault("p2p.trace.ringSize", 8192); // $NON_NLS-1$
+
+    private static final long maxFileSize = JMeterUtils.getPropDefault("p2p.trace.maxFileSize", 256L * 1024 * 1024); // $NON_NLS-1$
+
+    private static WireTracer instance;
+
+    private final int mask;
+    private final byte[] kinds;
+    private final long[] times;
+    private final long[] threads;
+    private final byte[][] packets;
+
+    // 槽位发布的序号，等于写入时申请到的序号才可读
+    private final AtomicLong[] published;
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private DataOutputStream out;
+
+    private long fileSize;
+
+    private volatile boolean closed;
+
+    // 已写入的模板和编号，只在锁内修改
+    private final ConcurrentHashMap<String, Integer> templates = new ConcurrentHashMap<String, Integer>();
+
+    private int lastTemplateId;
+
+    private WireTracer(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        mask = capacity - 1;
+        kinds = new byte[capacity];
+        times = new long[capacity];
+        threads = new long[capacity];
+        packets = new byte[capacity][];
+        published = new AtomicLong[capacity];
+        for (int i = 0; i < capacity; i++) {
+            published[i] = new AtomicLong(-1);
+        }
+    }
+
+    /**
+     * @return true if tracing is configured
+     */
+    public static boolean isEnabled() {
+        return sampleEvery > 0;
+    }
+
+    /**
+     * Decides whether the current exchange is traced. Call once per exchange and
+     * pass the answer along, so a request and its response are traced together.
+     *
+     * @return true if the exchange should be traced
+     */
+    public static boolean sample() {
+        return sampleEvery == 1 || (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+    }
+
+    /**
+     * @return the tracer, started on first use
+     */
+    public static synchronized WireTracer getInstance() {
+        if (instance == null) {
+            final WireTracer tracer = new WireTracer(ringSize);
+            try {
+                tracer.open(fileName);
+            } catch (IOException e) {
+                log.error("Cannot open trace file " + fileName, e);
+                tracer.closed = true;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tracer.run();
+                }
+            }, "P2PWireTracer"); // $NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tracer.close();
+                }
+            }, "P2PWireTracer-shutdown")); // $NON-NLS-1$
+            log.info("Tracing 1 in " + sampleEvery + " exchanges to " + fileName);
+            instance = tracer;
+        }
+        return instance;
+    }
+
+    /**
+     * Copies a packet into the ring; never blocks.
+     *
+     * @param kind one of the constants of this class
+     * @param data buffer
+     * @param offset first byte of the packet
+     * @param length length of the packet
+     * @return false if the packet was dropped
+     */
+    public boolean trace(byte kind, byte[] data, int offset, int length) {
+        return trace(kind, -1, data, offset, length);
+    }
+
+    /**
+     * Traces a response checked against {@code template}, without decoding it: the raw
+     * bytes are traced with the id of the template, and the template itself once, the
+     * first time it is used. {@link TraceViewer} decodes the response.
+     *
+     * @param template expected template, after JMeter variable substitution
+     * @param data raw response
+     * @return false if the response was dropped
+     */
+    public boolean traceDecoded(String template, byte[] data) {
+        Integer id = templates.get(template);
+        if (id == null) {
+            id = addTemplate(template);
+            if (id == null) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        return trace(DECODED, id, data, 0, data.length);
+    }
+
+    /**
+     * @return id of the template, null if the template could not be traced
+     */
+    private synchronized Integer addTemplate(String template) {
+        Integer id = templates.get(template);
+        if (id != null) {
+            return id;
+        }
+        byte[] text = template.getBytes(UTF8);
+        // 模板先于使用它的响应申请序号，所以先写入文件
+        if (!trace(TEMPLATE, lastTemplateId + 1, text, 0, text.length)) {
+            return null;
+        }
+        if (templates.size() >= MAX_TEMPLATES) {
+            templates.clear();
+        }
+        id = ++lastTemplateId;
+        templates.put(template, id);
+        return id;
+    }
+
+    /**
+     * @param id written as an int before the packet, unless negative
+     */
+    private boolean trace(byte kind, int id, byte[] data, int offset, int length) {
+        long time = System.nanoTime();
+        long seq;
+        do {
+            seq = claimed.get();
+            if (closed || seq - consumed.get() > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        int slot = (int) seq & mask;
+        byte[] copy;
+        if (id < 0) {
+            copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+        } else {
+            copy = new byte[4 + length];
+            copy[0] = (byte) (id >>> 24);
+            copy[1] = (byte) (id >>> 16);
+            copy[2] = (byte) (id >>> 8);
+            copy[3] = (byte) id;
+            System.arraycopy(data, offset, copy, 4, length);
+        }
+        kinds[slot] = kind;
+        times[slot] = time;
+        threads[slot] = Thread.currentThread().getId();
+        packets[slot] = copy;
+        published[slot].set(seq);
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    private void open(String name) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(name), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        // 用于把nanoTime换算成时间
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(System.nanoTime());
+        fileSize = 4 + 4 + 8 + 8;
+    }
+
+    private void run() {
+        while (true) {
+            int n = drain();
+            if (n == 0) {
+                if (closed) {
+                    return;
+                }
+                flush();
+                LockSupport.parkNanos(1000 * 1000);
+            }
+        }
+    }
+
+    /**
+     * @return number of slots consumed
+     */
+    private synchronized int drain() {
+        int n = 0;
+        long next = consumed.get();
+        while (published[(int) next & mask].get() == next) {
+            int slot = (int) next & mask;
+            write(kinds[slot], times[slot], threads[slot], packets[slot]);
+            packets[slot] = null;
+            consumed.lazySet(++next);
+            n++;
+        }
+        return n;
+    }
+
+    private void write(byte kind, long time, long thread, byte[] packet) {
+        if (out == null) {
+            return;
+        }
+        if (fileSize + 21 + packet.length > maxFileSize) {
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            out.writeByte(kind);
+            out.writeLong(time);
+            out.writeLong(thread);
+            out.writeInt(packet.length);
+            out.write(packet);
+            fileSize += 21 + packet.length;
+            written.incrementAndGet();
+        } catch (IOException e) {
+            log.error("Cannot write trace, tracing stopped", e);
+            closed = true;
+            out = null;
+        }
+    }
+
+    private synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                log.error("Cannot write trace, tracing stopped", e);
+                closed = true;
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Writes the packets in the ring and closes the file.
+     */
+    public synchronized void close() {
+        closed = true;
+        drain();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.error("Cannot close trace file", e);
+            }
+            out = null;
+        }
+        if (dropped.get() > 0) {
+            log.warn("Trace: " + dropped.get() + " packets dropped, " + written.get() + " written");
+        }
+    }
+}
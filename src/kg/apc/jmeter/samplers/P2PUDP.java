@@ -1,15 +1,19 @@
 package kg.apc.jmeter.samplers;
 
-import com.zm.message.Message;
-import com.zm.utils.BU;
+import com.zm.codec.ResponseFormat;
+import com.zm.corpus.CorpusReference;
+import com.zm.stats.ArrivalSchedule;
+import com.zm.template.MessageTemplateCache;
+import com.zm.trace.WireTracer;
+import org.apache.jmeter.protocol.tcp.sampler.P2PTCP;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jorphan.logging.LoggingManager;
-import org.apache.jorphan.util.JOrphanUtils;
 import org.apache.log.Logger;
 
 import javax.swing.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Date;
 
 /**
  * Created by zhangmin on 2015/11/9.
@@ -17,39 +21,104 @@ import java.util.Date;
 public class P2PUDP implements UDPTrafficDecoder {
     private static final Logger log = LoggingManager.getLoggerForClass();
 
+    // 本次收发是否写入WireTracer
+    private boolean traced;
+
+    // 上次使用的预编码消息文件
+    private CorpusReference corpusReference;
+
+    // 开始发包的时间，用于计算到达率计划下的原始延迟
+    private long sendNanos;
+
     @Override
     public ByteBuffer encode(String s) {
+        startSend();
+        if (CorpusReference.isReference(s)) {
+            return encodeCorpus(s);
+        }
         byte[] data = new byte[0];
         try{
-            Message message = new Message(s);
-            data = message.encode();
+            data = MessageTemplateCache.getInstance().encode(s);
         }catch (Exception e ){
             JOptionPane.showMessageDialog(null, e.getMessage(), "P2P消息【发包】", JOptionPane.ERROR_MESSAGE);
             throw new IllegalStateException(e.getMessage());
         }
 
+        // 发包和收包一起决定是否记录
+        traced = WireTracer.isEnabled() && WireTracer.sample();
+        if (traced) {
+            WireTracer.getInstance().trace(WireTracer.UDP_OUT, data, 0, data.length);
+        }
         if(log.isDebugEnabled()){
-            log.debug("Write: \n" + s);
-            log.debug("Write(hex): \n" + BU.bytes2Hex(data));
-            System.out.println("============发送UDP==========" + new Date() + "==================");
-            System.out.println();
-            System.out.println(BU.bytes2HexGoodLook(data));
-            System.out.println();
+            log.debug("Write: " + data.length + "(size)\n" + s);
         }
 
         return ByteBuffer.wrap(data);
     }
 
+    /**
+     * Sends a payload of a pre-encoded corpus straight from its memory mapping, see {@link CorpusReference}.
+     */
+    private ByteBuffer encodeCorpus(String s) {
+        ByteBuffer payload;
+        try {
+            if (corpusReference == null || !corpusReference.matches(s)) {
+                corpusReference = CorpusReference.parse(s);
+            }
+            payload = corpusReference.getCorpus().payload(corpusReference.select());
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+
+        tracePayload(payload);
+        if(log.isDebugEnabled()){
+            log.debug("Write: " + payload.remaining() + "(size)\n" + s);
+        }
+        return payload;
+    }
+
+    /**
+     * Sends an encoded message, for example a recorded request, with the timing and
+     * tracing of {@link #encode(String)}.
+     * @param payload encoded message, returned as it is
+     * @return {@code payload}
+     */
+    public ByteBuffer encode(ByteBuffer payload) {
+        startSend();
+        tracePayload(payload);
+        if(log.isDebugEnabled()){
+            log.debug("Write: " + payload.remaining() + "(size)");
+        }
+        return payload;
+    }
+
+    private void startSend() {
+        sendNanos = System.nanoTime();
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        // 超时时不会解码，不保留上一个请求的延迟和到达时间
+        P2PTCP.resetFrameTimes(vars);
+        ArrivalSchedule.sending(sendNanos, vars);
+    }
+
+    private void tracePayload(ByteBuffer payload) {
+        traced = WireTracer.isEnabled() && WireTracer.sample();
+        if (traced) {
+            byte[] data = new byte[payload.remaining()];
+            payload.duplicate().get(data);
+            WireTracer.getInstance().trace(WireTracer.UDP_OUT, data, 0, data.length);
+        }
+    }
+
     @Override
     public byte[] decode(byte[] bytes) {
+        ArrivalSchedule.complete(sendNanos, System.nanoTime(), JMeterContextService.getContext().getVariables());
+        if (traced) {
+            WireTracer.getInstance().trace(WireTracer.UDP_IN, bytes, 0, bytes.length);
+        }
         if(log.isDebugEnabled()){
-            log.debug("Read: " + bytes.length + "(size)\n" + BU.bytes2Hex(bytes));
-            System.out.println("============接收UDP=========="+ new Date().toString()+"==================");
-            System.out.println();
-            System.out.println(BU.bytes2HexGoodLook(bytes));
-            System.out.println();
+            log.debug("Read: " + bytes.length + "(size)");
         }
 
-        return JOrphanUtils.baToHexString(bytes).getBytes();
+        return ResponseFormat.toResponseBytes(bytes);
     }
 }
@@ -25,17 +25,23 @@
  */
 package org.apache.jmeter.assertions;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
 import com.zm.Field.CompareResult;
-import com.zm.message.Message;
-import com.zm.utils.BU;
+import com.zm.capture.CaptureReader;
+import com.zm.capture.CaptureRecord;
+import com.zm.capture.CaptureWriter;
+import com.zm.codec.ResponseFormat;
+import com.zm.corpus.CorpusReference;
+import com.zm.template.DecodedMessage;
+import com.zm.template.ExpectedMessage;
+import com.zm.template.ExpectedSequence;
+import com.zm.stats.ArrivalSchedule;
+import com.zm.stats.LatencyRecorder;
+import com.zm.template.MessageTemplateCache;
+import com.zm.trace.PhaseTimer;
+import com.zm.trace.WireTracer;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.AbstractTestElement;
 import org.apache.jmeter.testelement.property.BooleanProperty;
@@ -51,9 +57,18 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
 
     private static final Logger log = LoggingManager.getLoggerForClass();
 
+    private static final boolean timing = PhaseTimer.isEnabled();
+
+    private static final boolean histograms = LatencyRecorder.isEnabled();
+
     /** Key for storing assertion-informations in the jmx-file. */
     private static final String P2P_KEY = "P2PAssertion.txt";
 
+    // 每个线程有自己的断言副本，这里只缓存上次使用的预期消息
+    private transient ExpectedMessage expectedMessage;
+
+    private transient ExpectedSequence expectedSequence;
+
     /*
      * @param response @return
      */
@@ -63,8 +78,15 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
 
         AssertionResult result = new AssertionResult(getName());
         result.setFailure(false);
+        if (timing) {
+            PhaseTimer.current().clear(PhaseTimer.DECODE, PhaseTimer.COMPARE);
+        }
+        if (!response.isSuccessful()) {
+            // UDP超时时解码器不会被调用，按样本的结束时间发布延迟
+            ArrivalSchedule.failed(endNanos(response), getThreadContext().getVariables());
+        }
         try{
-            byte[] resultData = BU.hex2Bytes(response.getResponseDataAsString());
+            byte[] resultData = ResponseFormat.getRawResponse(response);
 
             if (resultData.length == 0) {
                 result.setError(false);
@@ -74,23 +96,46 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
             }
 
             // no point in checking if we don't have anything to compare against
-            if (getP2PTxt().replaceAll("\\s", "").equals("")) {
+            String p2pTxt = getP2PTxt();
+            if (p2pTxt.trim().length() == 0) {
                 result.setError(false);
                 result.setFailure(true);
                 result.setFailureMessage("没有设置预期结果");
                 return result;
             }
 
-            Message expect = new Message(getP2PTxt());
-            expect.encode();
+            long start = timing ? System.nanoTime() : 0;
+            if (isSequence(p2pTxt)) {
+                return checkSequence(response, resultData, p2pTxt, start, result);
+            }
+            ExpectedMessage expected = getExpectedMessage(p2pTxt);
+            String propertyStr = getPropertyTxt().trim();
+            if (WireTracer.isEnabled() && WireTracer.sample()) {
+                // 只记录原始响应和模板，由TraceViewer解码
+                WireTracer.getInstance().traceDecoded(p2pTxt, resultData);
+            }
+
+            // 不需要解码后的字段时，先按字节快速比较，不一致再解码给出差异
+            if (propertyStr.length() == 0 && !histograms && expected.quickMatch(resultData)) {
+                if (timing) {
+                    recordPhases(start, start);
+                }
+                saveBody(response, resultData);
+                return result;
+            }
 
-            Message fact = new Message(getP2PTxt(), resultData);
-            fact.decode();
+            DecodedMessage fact = expected.decode(resultData);
+            long decoded = 0;
+            if (timing) {
+                decoded = System.nanoTime();
+                PhaseTimer.current().record(PhaseTimer.DECODE, start, decoded);
+            }
+            if (histograms) {
+                LatencyRecorder.getInstance().record(fact.getMessage(), response.getTime(), ArrivalSchedule.takeCorrected());
+            }
 
-            if(log.isDebugEnabled()) {
-                System.out.println(fact);
-                if(fact.dataCntLeftToDecode() > 0)
-                    System.out.println("还剩" + fact.dataCntLeftToDecode() + "字节数据没有解码");
+            if(log.isDebugEnabled() && fact.dataCntLeftToDecode() > 0) {
+                log.debug("还剩" + fact.dataCntLeftToDecode() + "字节数据没有解码");
             }
 
             if(fact.dataCntLeftToDecode() > 0){
@@ -99,9 +144,12 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
                 return result;
             }
 
-            CompareResult compareResult = expect.compare(fact);
+            CompareResult compareResult = expected.compare(fact);
+            if (timing) {
+                PhaseTimer.current().record(PhaseTimer.COMPARE, decoded, System.nanoTime());
+            }
             if(!compareResult.equal){
-                String expectStr = "\r\n================预期================\r\n" + expect;
+                String expectStr = "\r\n================预期================\r\n" + expected.getExpected();
                 String factStr = "\r\n================实际================\r\n" + fact;
                 result.setFailure(true);
                 result.setFailureMessage(compareResult.msg + expectStr + factStr);
@@ -109,76 +157,210 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
             }
 
             //处理保存字段值
-            String propertyStr = "";
-            if(!(propertyStr = getPropertyTxt().trim()).equals("")){
-                String[] pNames = propertyStr.split(",");
-                String factString = fact.toString();
-                if(pNames.length > 0){
-                    JMeterVariables vars = getThreadContext().getVariables();
-                    Pattern pattern = null;
-                    Matcher matcher = null;
-                    for(int i = 0; i < pNames.length; i++){
-                        //至少含一个非空白字符，可处理数组
-                        pattern = Pattern.compile(pNames[i] + "[0-9]*=(\\S+)\r\n",  Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-                        matcher = pattern.matcher(factString);
-                        //循环将数组放入相同的变量名中，制表符分隔
-                        String value = "";
-                        while(matcher.find()){
-                            value += matcher.group(1) + "\t";
-                        }
-                        if ((value = value.trim()).equals("")) {
-                            value = "NOT_FOUND";
-                        }
-                        vars.put(pNames[i], value);
-                    }
-                }
+            if(propertyStr.length() > 0){
+                //按字段名取值，数组的各项放入相同的变量名中，制表符分隔
+                expected.getExtractor(propertyStr).extract(fact.getMessage(), getThreadContext().getVariables());
             }
 
-            //处理保存body到文件
-            if(getSaveBodyToFile()) {
-                String samplerName = response.getSampleLabel();
-                String time = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss")
-                        .format(new Date(System.currentTimeMillis()));
+            saveBody(response, resultData);
+
+        }catch (Exception e){
+            //e.printStackTrace();
+            result.setFailure(true);
+            result.setFailureMessage("异常：" + e.getMessage());
+        } finally {
+            if (timing) {
+                // 失败时没有走到的阶段为空，不保留上一个样本的值
+                PhaseTimer.current().publish(getThreadContext().getVariables(), PhaseTimer.DECODE, PhaseTimer.COMPARE);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the end of the sample, now if it has no end time
+     */
+    private static long endNanos(SampleResult response) {
+        long ago = response.getEndTime() > 0 ? System.currentTimeMillis() - response.getEndTime() : 0;
+        return System.nanoTime() - Math.max(0, ago) * 1000000L;
+    }
+
+    /**
+     * Checks a response of several messages, each against its own template, see {@link ExpectedSequence}.
+     * The time each check took is published as "p2p.check.&lt;n&gt;" in microseconds (n from 1);
+     * failures also give when the message arrived, if the sampler published it for this sample
+     * as "p2p.frame.&lt;n&gt;", up to "p2p.frame.count".
+     */
+    private AssertionResult checkSequence(SampleResult response, byte[] resultData, String p2pTxt,
+                                          long start, AssertionResult result) {
+        ExpectedSequence sequence = getExpectedSequence(p2pTxt);
+        List<byte[]> frames = sequence.split(resultData);
+        boolean unordered = getUnordered();
+        int[] assigned = unordered ? sequence.assign(frames) : null;
+        long split = timing ? System.nanoTime() : 0;
+
+        JMeterVariables vars = getThreadContext().getVariables();
+        String propertyStr = getPropertyTxt().trim();
+        int arrivals = frameCount(vars);
+        // 各消息修正后的延迟为自己的时间加上请求晚发的时间
+        long late = histograms ? ArrivalSchedule.takeLate() : -1;
+        StringBuilder failures = new StringBuilder();
+        if (frames.size() != sequence.size()) {
+            failures.append("收到").append(frames.size()).append("个消息，预期").append(sequence.size()).append("个");
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            String arrival = i < arrivals ? vars.get("p2p.frame." + (i + 1)) : null; // $NON-NLS-1$
+            int index = unordered ? assigned[i] : i;
+            long checkStart = System.nanoTime();
+            String failure;
+            if (index < 0 || index >= sequence.size()) {
+                failure = unordered ? "没有匹配的预期消息" : "多余的消息";
+            } else {
+                failure = checkFrame(sequence.get(index), frame, propertyStr, vars,
+                        arrival != null ? Long.parseLong(arrival) / 1000 : response.getTime(), late);
+            }
+            if (vars != null) {
+                vars.put("p2p.check." + (i + 1), Long.toString((System.nanoTime() - checkStart) / 1000)); // $NON-NLS-1$
+            }
+            if (failure != null) {
+                if (failures.length() > 0) {
+                    failures.append("\r\n");
+                }
+                failures.append("第").append(i + 1).append("个消息");
+                if (arrival != null) {
+                    failures.append("(").append(arrival).append("us到达)");
+                }
+                failures.append("：").append(failure);
+            }
+        }
+        if (timing) {
+            recordPhases(start, split);
+        }
+        if (failures.length() > 0) {
+            result.setFailure(true);
+            result.setFailureMessage(failures.toString());
+            return result;
+        }
+        saveBody(response, resultData);
+        return result;
+    }
 
-                Message req = new Message(response.getSamplerData());
-                byte[] reqBytesData = processHttpBody(req.encode());
+    /**
+     * @return number of "p2p.frame.&lt;n&gt;" variables published for the current sample
+     */
+    private static int frameCount(JMeterVariables vars) {
+        String count = vars != null ? vars.get("p2p.frame.count") : null; // $NON-NLS-1$
+        if (count == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-                BufferedOutputStream out = new BufferedOutputStream(
-                        new FileOutputStream(samplerName + ".req." + time));
-                out.write(reqBytesData);
-                out.close();
+    /**
+     * Checks one message of a sequence and extracts its fields.
+     *
+     * @param elapsed time of the message in ms, for the latency histograms
+     * @param late ms the request was sent after its intended time, -1 if not scheduled
+     * @return the failure message, or null if the message passes
+     */
+    private String checkFrame(ExpectedMessage expected, byte[] frame, String propertyStr,
+                              JMeterVariables vars, long elapsed, long late) {
+        if (propertyStr.length() == 0 && !histograms && expected.quickMatch(frame)) {
+            return null;
+        }
+        DecodedMessage fact;
+        try {
+            fact = expected.decode(frame);
+        } catch (RuntimeException e) {
+            return "解码失败：" + e.getMessage();
+        }
+        if (fact.dataCntLeftToDecode() > 0) {
+            return "还剩" + fact.dataCntLeftToDecode() + "字节数据没有解码";
+        }
+        CompareResult compareResult = expected.compare(fact);
+        if (!compareResult.equal) {
+            return compareResult.msg
+                    + "\r\n================预期================\r\n" + expected.getExpected()
+                    + "\r\n================实际================\r\n" + fact;
+        }
+        if (histograms) {
+            LatencyRecorder.getInstance().record(fact.getMessage(), elapsed, late >= 0 ? elapsed + late : -1);
+        }
+        if (propertyStr.length() > 0 && vars != null) {
+            // 各消息按自己的模板取值，同名变量以后面的消息为准
+            expected.getExtractor(propertyStr).extract(fact.getMessage(), vars);
+        }
+        return null;
+    }
 
-                out = new BufferedOutputStream(
-                        new FileOutputStream(samplerName + ".req.hex." + time));
-                out.write(BU.bytes2Hex(reqBytesData).getBytes());
-                out.close();
+    /**
+     * 处理保存body到文件，由后台线程写入
+     */
+    private void saveBody(SampleResult response, byte[] resultData) {
+        if(getSaveBodyToFile()) {
+            String samplerData = response.getSamplerData();
+            // 预编码消息文件的请求无法还原，只保存响应
+            byte[] req = CorpusReference.isReference(samplerData)
+                    ? new byte[0] : MessageTemplateCache.getInstance().encode(samplerData);
+            CaptureWriter.getInstance().offer(
+                    new CaptureRecord(response.getSampleLabel(), response.getTimeStamp(), req, resultData));
+        }
+    }
 
-                byte[] resBytesData = processHttpBody(resultData);
+    /**
+     * Records the decode and compare phases, see {@link PhaseTimer}; they are published
+     * when the check ends, also if it fails.
+     */
+    private static void recordPhases(long start, long decoded) {
+        PhaseTimer timer = PhaseTimer.current();
+        timer.record(PhaseTimer.DECODE, start, decoded);
+        timer.record(PhaseTimer.COMPARE, decoded, System.nanoTime());
+    }
 
-                out = new BufferedOutputStream(new FileOutputStream(samplerName + ".res." + time));
-                out.write(resBytesData);
-                out.close();
+    /**
+     * Returns the compiled expected message, compiling it only when the
+     * resolved text differs from the one used for the previous sample.
+     */
+    private ExpectedMessage getExpectedMessage(String p2pTxt) {
+        ExpectedMessage expected = expectedMessage;
+        if (expected == null || !expected.matches(p2pTxt)) {
+            expected = ExpectedMessage.forText(p2pTxt);
+            expectedMessage = expected;
+        }
+        return expected;
+    }
 
-                out = new BufferedOutputStream(new FileOutputStream(samplerName + ".res.hex" + time));
-                out.write(BU.bytes2Hex(resBytesData).getBytes());
-                out.close();
-            }
+    /**
+     * @return true if the text holds several templates; the check is skipped while the text stays the same
+     */
+    private boolean isSequence(String p2pTxt) {
+        ExpectedSequence sequence = expectedSequence;
+        if (sequence != null && sequence.matches(p2pTxt)) {
+            return true;
+        }
+        ExpectedMessage expected = expectedMessage;
+        if (expected != null && expected.matches(p2pTxt)) {
+            return false;
+        }
+        return ExpectedSequence.isSequence(p2pTxt);
+    }
 
-        }catch (Exception e){
-            //e.printStackTrace();
-            result.setFailure(true);
-            result.setFailureMessage("异常：" + e.getMessage());
+    private ExpectedSequence getExpectedSequence(String p2pTxt) {
+        ExpectedSequence sequence = expectedSequence;
+        if (sequence == null || !sequence.matches(p2pTxt)) {
+            sequence = ExpectedSequence.forText(p2pTxt);
+            expectedSequence = sequence;
         }
-        return result;
+        return sequence;
     }
 
     public byte[] processHttpBody(byte[] data) {
-        int index = BU.findFirst(data, "\r\n\r\n".getBytes());
-        if(index != -1) {
-            index += 4;
-            return BU.subByte(data, index, data.length - index);
-        }
-        return data;
+        return CaptureReader.body(data);
     }
 
     public void setP2PTxt(String hex) {
@@ -207,4 +389,15 @@ public class P2PAssertion extends AbstractTestElement implements Serializable, A
         return getPropertyAsBoolean("SaveBodyToFile");
     }
 
+    /**
+     * @param unordered true if the messages of a multi-message response may arrive in any order
+     */
+    public void setUnordered(boolean unordered) {
+        setProperty(new BooleanProperty("P2PAssertion.unordered", unordered));
+    }
+
+    public boolean getUnordered() {
+        return getPropertyAsBoolean("P2PAssertion.unordered");
+    }
+
 }
@@ -41,6 +41,8 @@ public class P2PAssertionGUI extends AbstractAssertionGui {
 
     private JCheckBox saveBodyToFile;
 
+    private JCheckBox unordered;
+
     public P2PAssertionGUI() {
         init();
     }
@@ -79,6 +81,10 @@ public class P2PAssertionGUI extends AbstractAssertionGui {
         saveBodyToFile = new JCheckBox("Save body to file");
         propertyPanel.add(saveBodyToFile);
 
+        // 多个预期消息用---分隔
+        unordered = new JCheckBox("Messages in any order");
+        propertyPanel.add(unordered);
+
         mainPanel.add(md5HexPanel, BorderLayout.CENTER);
         mainPanel.add(propertyPanel, BorderLayout.SOUTH);
         add(mainPanel, BorderLayout.CENTER);
@@ -92,6 +98,7 @@ public class P2PAssertionGUI extends AbstractAssertionGui {
         this.p2pTcpInput.setText(String.valueOf(assertion.getP2PTxt()));
         this.propertyInput.setText(String.valueOf(assertion.getPropertyTxt()));
         this.saveBodyToFile.setSelected(assertion.getSaveBodyToFile());
+        this.unordered.setSelected(assertion.getUnordered());
     }
 
     @Override
@@ -132,6 +139,7 @@ public class P2PAssertionGUI extends AbstractAssertionGui {
         ((P2PAssertion) element).setPropertyTxt(propertyString);
 
         ((P2PAssertion) element).setSaveBodyToFile(this.saveBodyToFile.isSelected());
+        ((P2PAssertion) element).setUnordered(this.unordered.isSelected());
     }
 
     /**
@@ -144,5 +152,6 @@ public class P2PAssertionGUI extends AbstractAssertionGui {
         p2pTcpInput.setText(""); //$NON-NLS-1$
         propertyInput.setText("");
         saveBodyToFile.setSelected(false);
+        unordered.setSelected(false);
     }
 }
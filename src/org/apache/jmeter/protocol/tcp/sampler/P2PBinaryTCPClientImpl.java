@@ -29,10 +29,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import com.zm.codec.HexCodec;
+import com.zm.codec.ResponseFormat;
 import org.apache.commons.io.IOUtils;
+import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
-import org.apache.jorphan.util.JOrphanUtils;
 import org.apache.log.Logger;
 
 /**
@@ -65,25 +67,11 @@ public class P2PBinaryTCPClientImpl extends AbstractTCPClient {
      * @throws IllegalArgumentException if string is not an even number of hex digits
      */
     public static final byte[] hexStringToByteArray(String hexEncodedBinary) {
-        if (hexEncodedBinary.length() % 2 == 0) {
-            char[] sc = hexEncodedBinary.toCharArray();
-            byte[] ba = new byte[sc.length / 2];
-
-            for (int i = 0; i < ba.length; i++) {
-                int nibble0 = Character.digit(sc[i * 2], 16);
-                int nibble1 = Character.digit(sc[i * 2 + 1], 16);
-                if (nibble0 == -1 || nibble1 == -1){
-                    throw new IllegalArgumentException(
-                            "Hex-encoded binary string contains an invalid hex digit in '"+sc[i * 2]+sc[i * 2 + 1]+"'");
-                }
-                ba[i] = (byte) ((nibble0 << 4) | (nibble1));
-            }
-
-            return ba;
-        } else {
+        if (hexEncodedBinary.length() % 2 != 0) {
             throw new IllegalArgumentException(
                     "Hex-encoded binary string contains an uneven no. of digits");
         }
+        return HexCodec.decode(hexEncodedBinary);
     }
 
     /**
@@ -93,6 +81,7 @@ public class P2PBinaryTCPClientImpl extends AbstractTCPClient {
      */
     @Override
     public void write(OutputStream os, String hexEncodedBinary) throws IOException{
+        P2PTCP.resetFrameTimes(JMeterContextService.getContext().getVariables());
         os.write(hexStringToByteArray(hexEncodedBinary));
         os.flush();
         if(log.isDebugEnabled()) {
@@ -113,7 +102,7 @@ public class P2PBinaryTCPClientImpl extends AbstractTCPClient {
      * Reads data until the defined EOM byte is reached.
      * If there is no EOM byte defined, then reads until
      * the end of the stream is reached.
-     * Response data is converted to hex-encoded binary
+     * Response data is converted to hex-encoded binary, see {@link ResponseFormat}
      * @return hex-encoded binary string
      * @throws ReadException when reading fails
      */
@@ -136,14 +125,24 @@ public class P2PBinaryTCPClientImpl extends AbstractTCPClient {
             }
 
             IOUtils.closeQuietly(w); // For completeness
-            final String hexString = JOrphanUtils.baToHexString(w.toByteArray());
+            final byte[] data = w.toByteArray();
             if(log.isDebugEnabled()) {
-                log.debug("Read: " + w.size() + "\n" + hexString);
+                log.debug("Read: " + w.size() + "\n" + HexCodec.encode(data));
             }
-            return hexString;
+            return ResponseFormat.toResponseString(data, 0, data.length);
         } catch (IOException e) {
-            throw new ReadException("", e, JOrphanUtils.baToHexString(w.toByteArray()));
+            byte[] data = w.toByteArray();
+            throw new ReadException("", e, ResponseFormat.toResponseString(data, 0, data.length));
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * In binary response mode this is {@link ResponseFormat#BINARY_CHARSET}.
+     */
+    @Override
+    public String getCharset() {
+        return ResponseFormat.isBinary() ? ResponseFormat.BINARY_CHARSET : super.getCharset();
+    }
+
 }
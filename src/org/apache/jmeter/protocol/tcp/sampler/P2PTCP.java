@@ -25,18 +25,29 @@
 package org.apache.jmeter.protocol.tcp.sampler;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 
-import com.zm.message.Message;
-import com.zm.utils.BU;
+import com.zm.codec.ResponseFormat;
+import com.zm.corpus.Corpus;
+import com.zm.corpus.CorpusReference;
+import com.zm.frame.FrameFormat;
+import com.zm.frame.FrameReader;
+import com.zm.stats.ArrivalSchedule;
+import com.zm.stream.SpillingResponse;
+import com.zm.template.MessageTemplateCache;
+import com.zm.trace.PhaseTimer;
+import com.zm.trace.WireTracer;
 import org.apache.commons.io.IOUtils;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
-import org.apache.jorphan.util.JOrphanUtils;
 import org.apache.log.Logger;
 
 import javax.swing.*;
@@ -55,25 +66,74 @@ public class P2PTCP extends AbstractTCPClient {
 
     private static final int eomInt = JMeterUtils.getPropDefault("tcp.BinaryTCPClient.eomByte", 1000); // $NON_NLS-1$
 
+    private static final boolean framing = JMeterUtils.getPropDefault("p2p.tcp.framing", false); // $NON_NLS-1$
+
+    private static final int spillThreshold = JMeterUtils.getPropDefault("p2p.stream.spillThreshold", 0); // $NON_NLS-1$
+
+    private static final String spillDigest = JMeterUtils.getPropDefault("p2p.stream.digest", "MD5"); // $NON_NLS-1$
+
+    private static final String spillDir = JMeterUtils.getPropDefault("p2p.stream.spillDir", ""); // $NON_NLS-1$
+
+    // 每次read最多读取的字节数，readLoopCount按这个大小计算
+    private static final int READ_SIZE = 4096;
+
     private int readLoopCount = 1;
+
+    // 按长度字段分帧读取时使用，每个连接一个
+    private final FrameReader frameReader = new FrameReader();
+
+    private FrameFormat frameFormat;
+
+    private boolean frameFormatChecked;
+
+    // 本次收发是否写入WireTracer
+    private boolean traced;
+
+    private static final boolean timing = PhaseTimer.isEnabled();
+
+    // 开始发包的时间，用于计算到达率计划下的原始延迟
+    private long writeStart;
+
+    // 发包结束的时间，用于计算首字节时间和各个消息的到达时间
+    private long writeEnd;
+
+    // 收到第一个字节的时间，0表示还没有收到
+    private long firstByte;
+
+    // 大响应边读边计算摘要，超过阈值的body写入临时文件
+    private SpillingResponse spilling;
+
+    private byte[] spillBuffer;
+
+    // 多消息响应中每个消息读完的时间
+    private long[] frameNanos = new long[4];
+
+    // 上次使用的预编码消息文件，payload复制到corpusBuffer后发送
+    private CorpusReference corpusReference;
+
+    private byte[] corpusBuffer = new byte[0];
+
     public P2PTCP() {
         super();
         setEolByte(eomInt);
         if (useEolByte) {
             log.info("Using eomByte=" + eolByte);
         }
+        if (framing) {
+            frameFormat = FrameFormat.fromProperties();
+            frameFormatChecked = frameFormat != null;
+        }
     }
 
     /**
-     * Convert hex string to binary byte array.
+     * Convert P2P message template to binary byte array.
+     * Parsed templates are cached, see {@link MessageTemplateCache}.
      *
-     * @param hexEncodedBinary - hex-encoded binary string
-     * @return Byte array containing binary representation of input hex-encoded string
-     * @throws IllegalArgumentException if string is not an even number of hex digits
+     * @param string - P2P message template
+     * @return Byte array containing the encoded message, must not be modified
      */
     public static final byte[] stringToP2PTCP(String string) {
-        Message message = new Message(string);
-        return message.encode();
+        return MessageTemplateCache.getInstance().encode(string);
     }
 
     /**
@@ -83,30 +143,160 @@ public class P2PTCP extends AbstractTCPClient {
      */
     @Override
     public void write(OutputStream os, String hexEncodedBinary) throws IOException{
+        long start = startWrite();
+        boolean written = false;
+        try {
+            writeMessage(os, hexEncodedBinary, start);
+            written = true;
+        } finally {
+            if (!written) {
+                writeFailed(start);
+            }
+        }
+    }
+
+    /**
+     * Writes an encoded message, for example a recorded request, with the timing and
+     * tracing of {@link #write(OutputStream, String)}. It has no encode phase.
+     * @param os output stream
+     * @param data encoded message
+     * @param offset offset of the message in {@code data}
+     * @param length length of the message
+     */
+    public void write(OutputStream os, byte[] data, int offset, int length) throws IOException {
+        long start = startWrite();
+        boolean written = false;
+        try {
+            os.write(data, offset, length);
+            os.flush();
+            written(data, offset, length, start);
+            written = true;
+        } finally {
+            if (!written) {
+                writeFailed(start);
+            }
+        }
+        if(log.isDebugEnabled()) {
+            log.debug("Write: " + length + "(size)");
+        }
+    }
+
+    private long startWrite() {
+        long start = System.nanoTime();
+        writeStart = start;
+        firstByte = 0;
+        if (timing) {
+            PhaseTimer.current().clear(PhaseTimer.ENCODE, PhaseTimer.COMPARE);
+        }
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        resetFrameTimes(vars);
+        ArrivalSchedule.sending(start, vars);
+        return start;
+    }
+
+    /**
+     * Sets "p2p.frame.count" to 0, so that {@link org.apache.jmeter.assertions.P2PAssertion}
+     * does not report the arrival times of an earlier sample. Every P2P sampler calls it
+     * before it sends; only P2PTCP publishes the times of a multi-message response.
+     * @param vars variables of the current thread, may be null
+     */
+    public static void resetFrameTimes(JMeterVariables vars) {
+        if (vars != null) {
+            // 本次没有多消息响应时，断言不使用上一个样本的到达时间
+            vars.put("p2p.frame.count", "0"); // $NON-NLS-1$
+        }
+    }
+
+    /**
+     * 发包失败时不会再读，这里发布已有的阶段和到失败为止的延迟
+     */
+    private void writeFailed(long start) {
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (timing) {
+            PhaseTimer.current().publish(vars, PhaseTimer.ENCODE, PhaseTimer.COMPARE);
+        }
+        ArrivalSchedule.complete(start, System.nanoTime(), vars);
+    }
+
+    /**
+     * Records the end of the write phase, which began at {@code writeFrom}, and traces the message.
+     */
+    private void written(byte[] data, int offset, int length, long writeFrom) {
+        writeEnd = System.nanoTime();
+        if (timing) {
+            PhaseTimer.current().record(PhaseTimer.WRITE, writeFrom, writeEnd);
+        }
+        // 发包和收包一起决定是否记录
+        traced = WireTracer.isEnabled() && WireTracer.sample();
+        if (traced) {
+            WireTracer.getInstance().trace(WireTracer.TCP_OUT, data, offset, length);
+        }
+    }
+
+    private void writeMessage(OutputStream os, String hexEncodedBinary, long start) throws IOException {
+        long encoded = 0;
         try {
             //从第一行中得到从socket读取数据的次数
             readLoopCount = Integer.parseInt(hexEncodedBinary.split("\n")[0]);
         } catch (Exception e) {
         }
         byte[] data = null;
+        int length = 0;
         try{
-            data = stringToP2PTCP(hexEncodedBinary);
-            os.write(data);
+            CorpusReference corpus = getCorpusReference(hexEncodedBinary);
+            if (corpus != null) {
+                data = corpusPayload(corpus);
+                length = corpus.getCorpus().copy(corpus.select(), data);
+            } else {
+                data = stringToP2PTCP(hexEncodedBinary);
+                length = data.length;
+            }
+            if (timing) {
+                encoded = System.nanoTime();
+                PhaseTimer.current().record(PhaseTimer.ENCODE, start, encoded);
+            }
+            if (framing && !frameFormatChecked && corpus == null) {
+                // 没有配置长度字段时，假定响应与请求的头部结构相同
+                frameFormat = FrameFormat.fromTemplate(hexEncodedBinary);
+                frameFormatChecked = true;
+                log.info(frameFormat == null ? "No len field in template, framing disabled" : "Using " + frameFormat);
+            }
+            os.write(data, 0, length);
         }catch (Exception e ){
             JOptionPane.showMessageDialog(null, e.getMessage(), "P2P消息【发包】", JOptionPane.ERROR_MESSAGE);
             throw new IllegalStateException(e.getMessage());
         }
 
         os.flush();
-
+        written(data, 0, length, encoded);
         if(log.isDebugEnabled()) {
-            log.debug("Write: \n" + hexEncodedBinary);
-            log.debug("Write(hex): \n" + BU.bytes2Hex(data));
-            System.out.println("============发送TCP==========" + new Date() + "==================");
-            System.out.println();
-            System.out.println(BU.bytes2HexGoodLook(data));
-            System.out.println();
+            log.debug("Write: " + length + "(size)\n" + hexEncodedBinary);
+        }
+    }
+
+    /**
+     * @return the corpus the text refers to, or null for a template, see {@link CorpusReference}
+     */
+    private CorpusReference getCorpusReference(String text) throws IOException {
+        if (corpusReference != null && corpusReference.matches(text)) {
+            return corpusReference;
+        }
+        if (!CorpusReference.isReference(text)) {
+            return null;
+        }
+        corpusReference = CorpusReference.parse(text);
+        return corpusReference;
+    }
+
+    /**
+     * @return a buffer large enough for every payload of the corpus, re-used between samples
+     */
+    private byte[] corpusPayload(CorpusReference reference) {
+        Corpus corpus = reference.getCorpus();
+        if (corpusBuffer.length < corpus.getMaxLength()) {
+            corpusBuffer = new byte[corpus.getMaxLength()];
         }
+        return corpusBuffer;
     }
 
     /**
@@ -119,18 +309,91 @@ public class P2PTCP extends AbstractTCPClient {
     }
 
     /**
-     * Reads data until the defined EOM byte is reached.
-     * If there is no EOM byte defined, then reads until
-     * the end of the stream is reached.
-     * Response data is converted to hex-encoded binary
+     * Reads readLoopCount times from the stream, at most 4 KB each time.
+     * If "p2p.tcp.framing" is set, reads readLoopCount whole messages instead,
+     * using the length field of the header (see {@link FrameFormat}).
+     * If "p2p.stream.spillThreshold" is set, the whole response is streamed, also in
+     * framing mode, see {@link #readSpilling(InputStream)}.
+     * Response data is converted to hex-encoded binary, see {@link ResponseFormat}
+     * Under a {@link org.apache.jmeter.timers.P2PArrivalTimer}, the raw and corrected
+     * latency are published, see {@link ArrivalSchedule}.
+     * The phases are published also when reading fails, see {@link PhaseTimer}.
      * @return hex-encoded binary string
      * @throws ReadException when reading fails
      */
     @Override
     public String read(InputStream is) throws ReadException {
+        firstByte = 0;
+        try {
+            return readResponse(is);
+        } finally {
+            readDone();
+        }
+    }
+
+    /**
+     * Reads {@code length} response bytes, for example the length of a recorded response:
+     * length-framed messages until they hold at least that many bytes if a frame format
+     * is used (see {@link #setFrameFormat(FrameFormat)}), otherwise exactly that many bytes.
+     * Everything else is as in {@link #read(InputStream)}; the response is never spilled.
+     * @return hex-encoded binary string
+     * @throws ReadException when reading fails or a frame is incomplete
+     */
+    public String read(InputStream is, int length) throws ReadException {
+        firstByte = 0;
+        try {
+            frameReader.reset();
+            try {
+                if (frameFormat != null) {
+                    do {
+                        frameReader.readFrame(is, frameFormat);
+                    } while (frameReader.getLength() < length);
+                } else {
+                    frameReader.read(is, length);
+                }
+            } catch (IOException e) {
+                throw framesFailed("", e);
+            } catch (IllegalStateException e) {
+                throw framesFailed(e.getMessage(), e);
+            }
+            return framesRead();
+        } finally {
+            readDone();
+        }
+    }
+
+    private void readDone() {
+        long end = System.nanoTime();
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (timing) {
+            publishPhases(end, vars);
+        }
+        ArrivalSchedule.complete(writeStart, end, vars);
+    }
+
+    /**
+     * Publishes the phases of the exchange. After a failed read, the read phase ends at the failure.
+     */
+    private void publishPhases(long end, JMeterVariables vars) {
+        PhaseTimer timer = PhaseTimer.current();
+        if (!timer.isRecorded(PhaseTimer.CONVERT) && firstByte != 0) {
+            timer.record(PhaseTimer.FIRST_BYTE, writeEnd, firstByte);
+            timer.record(PhaseTimer.READ, firstByte, end);
+        }
+        // 断言的阶段由断言发布，没有断言时为空
+        timer.publish(vars, PhaseTimer.ENCODE, PhaseTimer.COMPARE);
+    }
+
+    private String readResponse(InputStream is) throws ReadException {
+        if (spillThreshold > 0) {
+            return readSpilling(is);
+        }
+        if (frameFormat != null) {
+            return readFrames(is);
+        }
         ByteArrayOutputStream w = new ByteArrayOutputStream();
         try {
-            byte[] buffer = new byte[4096];
+            byte[] buffer = new byte[READ_SIZE];
             int x = 0;
             /*while ((x = is.read(buffer)) > -1) {
                 w.write(buffer, 0, x);
@@ -140,23 +403,297 @@ public class P2PTCP extends AbstractTCPClient {
             }*/
             for(int i = 0; i < readLoopCount; i++) {
                 if ((x = is.read(buffer)) > -1) {
+                    if (timing && firstByte == 0) {
+                        firstByte = System.nanoTime();
+                    }
                     w.write(buffer, 0, x);
                 }
             }
 
             IOUtils.closeQuietly(w); // For completeness
-            final String hexString = JOrphanUtils.baToHexString(w.toByteArray());
+            final byte[] data = w.toByteArray();
+            if (traced) {
+                WireTracer.getInstance().trace(WireTracer.TCP_IN, data, 0, data.length);
+            }
             if(log.isDebugEnabled()) {
-                log.debug("Read: " + w.size() + "(size)\n" + hexString);
-                System.out.println("============接收TCP=========="+ new Date().toString()+"==================");
-                System.out.println();
-                System.out.println(BU.bytes2HexGoodLook(BU.hex2Bytes(hexString)));
-                System.out.println();
+                log.debug("Read: " + data.length + "(size)");
+            }
+            if (timing) {
+                return convertTimed(data, 0, data.length);
             }
-            return hexString;
+            return ResponseFormat.toResponseString(data, 0, data.length);
         } catch (IOException e) {
-            throw new ReadException("", e, JOrphanUtils.baToHexString(w.toByteArray()));
+            byte[] data = w.toByteArray();
+            throw new ReadException("", e, ResponseFormat.toResponseString(data, 0, data.length));
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * Deletes the spill file of the streamed responses.
+     */
+    @Override
+    public void teardownTest() {
+        super.teardownTest();
+        if (spilling != null) {
+            spilling.close();
+            spilling = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * In binary response mode this is {@link ResponseFormat#BINARY_CHARSET}.
+     */
+    @Override
+    public String getCharset() {
+        return ResponseFormat.isBinary() ? ResponseFormat.BINARY_CHARSET : super.getCharset();
+    }
+
+    /**
+     * Reads exactly readLoopCount length-framed messages.
+     * @return hex-encoded binary string
+     * @throws ReadException when reading fails or a frame is incomplete
+     */
+    private String readFrames(InputStream is) throws ReadException {
+        frameReader.reset();
+        try {
+            for (int i = 0; i < readLoopCount; i++) {
+                frameReader.readFrame(is, frameFormat);
+            }
+        } catch (IOException e) {
+            throw framesFailed("", e);
+        } catch (IllegalStateException e) {
+            throw framesFailed(e.getMessage(), e);
+        }
+        return framesRead();
+    }
+
+    private ReadException framesFailed(String message, Exception e) {
+        setFirstByte();
+        return new ReadException(message, e,
+                ResponseFormat.toResponseString(frameReader.getBuffer(), 0, frameReader.getLength()));
+    }
+
+    /**
+     * Traces the messages in {@link #frameReader}, publishes their times if there are
+     * several, and converts them.
+     */
+    private String framesRead() {
+        setFirstByte();
+
+        if (traced) {
+            WireTracer.getInstance().trace(WireTracer.TCP_IN, frameReader.getBuffer(), 0, frameReader.getLength());
+        }
+        if(log.isDebugEnabled()) {
+            log.debug("Read: " + frameReader.getLength() + "(size)");
+        }
+        int frames = frameReader.getFrameCount();
+        if (frames > 1) {
+            for (int i = 0; i < frames; i++) {
+                setFrameNanos(i, frameReader.getFrameNanos(i));
+            }
+            publishFrameTimes(frames);
+        }
+        if (timing) {
+            return convertTimed(frameReader.getBuffer(), 0, frameReader.getLength());
+        }
+        return ResponseFormat.toResponseString(frameReader.getBuffer(), 0, frameReader.getLength());
+    }
+
+    /**
+     * Reads the whole response like {@link #read(InputStream)}, but hashes the body as it
+     * arrives and keeps only the http header and the first "p2p.stream.spillThreshold" body
+     * bytes on the heap; a larger body is written to a temporary file.
+     * The end of the response is given by the Content-Length of the http header, or by the
+     * length fields of readLoopCount messages in framing mode; otherwise readLoopCount reads
+     * are made as without spilling.
+     * The response data holds the heap part. The variables p2p.body.length, p2p.body.digest
+     * ("p2p.stream.digest" of the body, default MD5) and p2p.body.file (the spill file, empty
+     * if the whole body is in the response data) describe the whole body.
+     * @return hex-encoded binary string
+     * @throws ReadException when reading fails or the response is incomplete
+     */
+    private String readSpilling(InputStream is) throws ReadException {
+        if (spilling == null) {
+            spilling = new SpillingResponse(spillThreshold, spillDigest,
+                    spillDir.length() > 0 ? new File(spillDir) : null);
+            spillBuffer = new byte[64 * 1024];
+        }
+        spilling.reset();
+        try {
+            if (frameFormat != null) {
+                readFramesSpilling(is);
+            } else {
+                readBodySpilling(is);
+            }
+            spilling.finish();
+        } catch (IOException e) {
+            throw new ReadException("", e,
+                    ResponseFormat.toResponseString(spilling.getBuffer(), 0, spilling.getBufferedLength()));
+        } catch (IllegalStateException e) {
+            throw new ReadException(e.getMessage(), e,
+                    ResponseFormat.toResponseString(spilling.getBuffer(), 0, spilling.getBufferedLength()));
+        }
+
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (vars != null) {
+            String digest = spilling.getBodyDigest();
+            File file = spilling.getSpillFile();
+            vars.put("p2p.body.length", Long.toString(spilling.getBodyLength())); // $NON-NLS-1$
+            vars.put("p2p.body.digest", digest != null ? digest : ""); // $NON-NLS-1$
+            vars.put("p2p.body.file", file != null ? file.getPath() : ""); // $NON-NLS-1$
+        }
+        if (traced) {
+            WireTracer.getInstance().trace(WireTracer.TCP_IN, spilling.getBuffer(), 0, spilling.getBufferedLength());
+        }
+        if(log.isDebugEnabled()) {
+            log.debug("Read: " + spilling.getBodyLength() + "(body size)" + (spilling.isSpilled() ? ", spilled" : ""));
+        }
+        if (timing) {
+            return convertTimed(spilling.getBuffer(), 0, spilling.getBufferedLength());
+        }
+        return ResponseFormat.toResponseString(spilling.getBuffer(), 0, spilling.getBufferedLength());
+    }
+
+    /**
+     * Streams the response into {@link #spilling} up to the end of the http body: until
+     * Content-Length body bytes were read, or, without Content-Length, readLoopCount reads.
+     */
+    private void readBodySpilling(InputStream is) throws IOException {
+        byte[] buffer = spillBuffer;
+        int reads = 0;
+        while (true) {
+            int max = READ_SIZE;
+            long contentLength = spilling.getContentLength();
+            if (contentLength >= 0) {
+                long remaining = contentLength - spilling.getBodyLength();
+                if (remaining <= 0) {
+                    break;
+                }
+                // 不读到下一个响应
+                max = (int) Math.min(buffer.length, remaining);
+            } else if (spilling.isHeaderComplete() && reads >= readLoopCount) {
+                // 不知道长度时与不分流时一样读readLoopCount次
+                break;
+            }
+            int x = is.read(buffer, 0, max);
+            if (x < 0) {
+                if (contentLength >= 0) {
+                    throw new EOFException("Stream closed after " + spilling.getBodyLength()
+                            + " body bytes, Content-Length " + contentLength);
+                }
+                break;
+            }
+            if (firstByte == 0) {
+                firstByte = System.nanoTime();
+            }
+            spilling.write(buffer, 0, x);
+            reads++;
+        }
+    }
+
+    /**
+     * Streams readLoopCount length-framed messages into {@link #spilling}; only the length
+     * field of the current message is held apart.
+     */
+    private void readFramesSpilling(InputStream is) throws IOException {
+        byte[] buffer = spillBuffer;
+        int headerLength = frameFormat.headerLength();
+        for (int i = 0; i < readLoopCount; i++) {
+            readFully(is, buffer, headerLength);
+            long remaining = frameFormat.frameLength(buffer, 0) - headerLength;
+            spilling.write(buffer, 0, headerLength);
+            while (remaining > 0) {
+                int x = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (x < 0) {
+                    throw new EOFException("Stream closed inside message " + (i + 1) + ", " + remaining + " bytes missing");
+                }
+                spilling.write(buffer, 0, x);
+                remaining -= x;
+            }
+            setFrameNanos(i, System.nanoTime());
+        }
+        if (readLoopCount > 1) {
+            publishFrameTimes(readLoopCount);
+        }
+    }
+
+    private void readFully(InputStream is, byte[] buffer, int count) throws IOException {
+        int read = 0;
+        while (read < count) {
+            int x = is.read(buffer, read, count - read);
+            if (x < 0) {
+                throw new EOFException("Stream closed after " + read + " bytes of a length field");
+            }
+            if (firstByte == 0) {
+                firstByte = System.nanoTime();
+            }
+            read += x;
+        }
+    }
+
+    private void setFrameNanos(int index, long nanos) {
+        if (index >= frameNanos.length) {
+            frameNanos = Arrays.copyOf(frameNanos, Math.max(index + 1, frameNanos.length * 2));
+        }
+        frameNanos[index] = nanos;
+    }
+
+    /**
+     * Publishes when each message of a multi-message response was complete, as variables
+     * "p2p.frame.&lt;n&gt;" (n from 1) in microseconds after the request was written, and
+     * their number as "p2p.frame.count", which is 0 for every other sample.
+     * {@link org.apache.jmeter.assertions.P2PAssertion} reports them with each message it checks.
+     */
+    private void publishFrameTimes(int frames) {
+        JMeterVariables vars = JMeterContextService.getContext().getVariables();
+        if (vars == null) {
+            return;
+        }
+        for (int i = 0; i < frames; i++) {
+            vars.put("p2p.frame." + (i + 1), Long.toString((frameNanos[i] - writeEnd) / 1000)); // $NON-NLS-1$
+        }
+        vars.put("p2p.frame.count", Integer.toString(frames)); // $NON-NLS-1$
+    }
+
+    /**
+     * Sets where the length of a message is stored, in place of "p2p.tcp.framing".
+     * @param format length field, null to read without framing
+     */
+    public void setFrameFormat(FrameFormat format) {
+        frameFormat = format;
+        frameFormatChecked = true;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the first byte of the last response arrived,
+     *         0 if none did; with "p2p.tcp.framing" or {@link #read(InputStream, int)} only,
+     *         otherwise only when the phases are timed
+     */
+    public long getFirstByteNanos() {
+        return firstByte;
+    }
+
+    private void setFirstByte() {
+        if (frameReader.getLength() > 0) {
+            firstByte = frameReader.getFirstByteNanos();
+        }
+    }
+
+    /**
+     * Converts the response and records the phases of the read, see {@link PhaseTimer};
+     * they are published by {@link #read(InputStream)}.
+     */
+    private String convertTimed(byte[] data, int offset, int length) {
+        long readEnd = System.nanoTime();
+        long first = firstByte != 0 ? firstByte : readEnd;
+        String response = ResponseFormat.toResponseString(data, offset, length);
+        PhaseTimer timer = PhaseTimer.current();
+        timer.record(PhaseTimer.FIRST_BYTE, writeEnd, first);
+        timer.record(PhaseTimer.READ, first, readEnd);
+        timer.record(PhaseTimer.CONVERT, readEnd, System.nanoTime());
+        return response;
+    }
+
 }
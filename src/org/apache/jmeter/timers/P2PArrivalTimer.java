@@ -0,0 +1,106 @@
+package org.apache.jmeter.timers;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zm.stats.ArrivalSchedule;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.property.BooleanProperty;
+import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Starts the P2P samplers in its scope at a fixed arrival rate, see {@link ArrivalSchedule}.
+ *
+ * Each sample takes the next slot of the schedule and waits until its intended start time.
+ * A sample that is late starts at once, and its corrected latency counts from the intended
+ * time, so a server stall shows in the percentiles even though fewer requests were sent
+ * during the stall. The rate is shared by all threads, or applies to every thread if
+ * "per thread" is set.
+ *
+ * Every timer of the test plan has its own schedule, also when several timers have the
+ * same name: the schedule is keyed on an id the timer takes when the test starts, which
+ * the copies made for the threads share.
+ */
+public class P2PArrivalTimer extends AbstractTestElement implements Timer, TestStateListener, Serializable {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String RATE = "P2PArrivalTimer.rate"; // $NON-NLS-1$
+
+    private static final String PER_THREAD = "P2PArrivalTimer.perThread"; // $NON-NLS-1$
+
+    private static final AtomicLong ids = new AtomicLong();
+
+    // 测试开始时分配，各线程的副本共用，同名的定时器也不会共用计划
+    private transient String scheduleKey;
+
+    @Override
+    public long delay() {
+        double rate;
+        try {
+            rate = Double.parseDouble(getRate().trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid rate " + getRate() + " in " + getName());
+            return 0;
+        }
+        if (rate <= 0) {
+            return 0;
+        }
+        String schedule = scheduleKey != null ? scheduleKey : getName();
+        String key = getPerThread() ? schedule + "@" + Thread.currentThread().getName() : schedule;
+        long wait = ArrivalSchedule.get(key, rate).next() - System.nanoTime();
+        // 取整到毫秒，宁可晚一点也不要早于预定时间
+        return wait > 0 ? (wait + 999999) / 1000000 : 0;
+    }
+
+    public void setRate(String rate) {
+        setProperty(new StringProperty(RATE, rate));
+    }
+
+    /**
+     * @return requests per second
+     */
+    public String getRate() {
+        return getPropertyAsString(RATE);
+    }
+
+    public void setPerThread(boolean perThread) {
+        setProperty(new BooleanProperty(PER_THREAD, perThread));
+    }
+
+    public boolean getPerThread() {
+        return getPropertyAsBoolean(PER_THREAD);
+    }
+
+    @Override
+    public Object clone() {
+        P2PArrivalTimer clone = (P2PArrivalTimer) super.clone();
+        clone.scheduleKey = scheduleKey;
+        return clone;
+    }
+
+    @Override
+    public void testStarted() {
+        ArrivalSchedule.clear();
+        // 在线程克隆测试树之前调用
+        scheduleKey = getName() + "#" + ids.incrementAndGet();
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+    }
+
+    @Override
+    public void testEnded(String host) {
+    }
+}
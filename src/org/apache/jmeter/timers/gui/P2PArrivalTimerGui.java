@@ -0,0 +1,82 @@
+package org.apache.jmeter.timers.gui;
+
+import java.awt.BorderLayout;
+
+import javax.swing.*;
+
+import org.apache.jmeter.gui.util.HorizontalPanel;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.timers.P2PArrivalTimer;
+
+/**
+ * GUI of the {@link P2PArrivalTimer}.
+ */
+public class P2PArrivalTimerGui extends AbstractTimerGui {
+
+    private static final long serialVersionUID = 240L;
+
+    private JTextField rateInput;
+
+    private JCheckBox perThread;
+
+    public P2PArrivalTimerGui() {
+        init();
+    }
+
+    private void init() {
+        setLayout(new BorderLayout(0, 10));
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        HorizontalPanel ratePanel = new HorizontalPanel();
+        ratePanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
+                "Arrival schedule")); // $NON-NLS-1$
+        ratePanel.add(new JLabel("Requests per second")); //$NON-NLS-1$
+        rateInput = new JTextField(10);
+        ratePanel.add(rateInput);
+        perThread = new JCheckBox("Per thread");
+        ratePanel.add(perThread);
+
+        add(ratePanel, BorderLayout.CENTER);
+    }
+
+    @Override
+    public String getLabelResource() {
+        return "P2P_arrival_timer_title"; // $NON-NLS-1$
+    }
+
+    @Override
+    public String getStaticLabel() {
+        return "P2P Arrival Schedule Timer";
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        P2PArrivalTimer timer = new P2PArrivalTimer();
+        modifyTestElement(timer);
+        return timer;
+    }
+
+    @Override
+    public void modifyTestElement(TestElement element) {
+        configureTestElement(element);
+        ((P2PArrivalTimer) element).setRate(rateInput.getText());
+        ((P2PArrivalTimer) element).setPerThread(perThread.isSelected());
+    }
+
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        P2PArrivalTimer timer = (P2PArrivalTimer) el;
+        rateInput.setText(timer.getRate());
+        perThread.setSelected(timer.getPerThread());
+    }
+
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        rateInput.setText("10"); //$NON-NLS-1$
+        perThread.setSelected(false);
+    }
+}
@@ -0,0 +1,100 @@
+package com.zm.corpus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.zm.template.MessageTemplateCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CorpusCompilerTest {
+
+    private static final String TEMPLATE = "1\n[config]\norder=net\n[lhead]\n4@len=0\n"
+            + "[head]\n2@cmd=1001\n4@uid=${uid}\n[body]\ns@name=${name}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File csv(String content) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertSplit(String line, char delimiter, String... expected) {
+        assertArrayEquals(expected, CorpusCompiler.split(line, delimiter));
+    }
+
+    @Test
+    public void split() {
+        assertSplit("a,b,c", ',', "a", "b", "c");
+        assertSplit("a", ',', "a");
+        assertSplit("", ',', "");
+        assertSplit(",a,", ',', "", "a", "");
+        assertSplit("a\tb,c", '\t', "a", "b,c");
+    }
+
+    @Test
+    public void splitQuoted() {
+        assertSplit("\"a,b\",c", ',', "a,b", "c");
+        assertSplit("\"say \"\"hi\"\"\",x", ',', "say \"hi\"", "x");
+        assertSplit("\"\",x", ',', "", "x");
+        // 引号只用于界定，值中间的引号部分也会去掉
+        assertSplit("ab\"c,d\"e", ',', "abc,de");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void splitUnterminatedQuote() {
+        CorpusCompiler.split("\"a,b", ',');
+    }
+
+    @Test
+    public void compile() throws IOException {
+        File out = new File(folder.getRoot(), "out.p2pk");
+        int count = CorpusCompiler.compile(TEMPLATE, csv("uid,name\n1,peer\n\n2,\"peer2\"\n"), ',', out);
+        assertEquals(2, count);
+        Corpus corpus = Corpus.get(out);
+        assertEquals(2, corpus.size());
+        MessageTemplateCache cache = new MessageTemplateCache(4);
+        byte[] first = cache.encode(TEMPLATE.replace("${uid}", "1").replace("${name}", "peer"));
+        byte[] second = cache.encode(TEMPLATE.replace("${uid}", "2").replace("${name}", "peer2"));
+        assertEquals(Math.max(first.length, second.length), corpus.getMaxLength());
+        byte[] buffer = new byte[corpus.getMaxLength()];
+        assertEquals(first.length, corpus.copy(0, buffer));
+        assertArrayEquals(first, Arrays.copyOf(buffer, first.length));
+        assertEquals(second.length, corpus.copy(1, buffer));
+        assertArrayEquals(second, Arrays.copyOf(buffer, second.length));
+    }
+
+    @Test
+    public void wrongColumnCountLeavesNoFile() throws IOException {
+        File out = new File(folder.getRoot(), "bad.p2pk");
+        try {
+            CorpusCompiler.compile(TEMPLATE, csv("uid,name\n1,peer\n2\n"), ',', out);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Line 3 has 1 columns, the header has 2", e.getMessage());
+        }
+        assertFalse(out.exists());
+    }
+
+    @Test
+    public void unresolvedVariables() throws IOException {
+        File csv = csv("uid;other\n1;2\n");
+        assertEquals(Arrays.asList("name"), CorpusCompiler.unresolvedVariables(TEMPLATE + "s@x=${name}\n", csv, ';'));
+        assertEquals(Arrays.asList("uid", "name"), CorpusCompiler.unresolvedVariables(TEMPLATE, csv("a\n"), ','));
+    }
+}
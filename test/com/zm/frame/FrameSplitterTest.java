@@ -0,0 +1,112 @@
+package com.zm.frame;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrameSplitterTest {
+
+    // 4字节网络序len字段，值为len字段之后的字节数
+    private static final FrameFormat FORMAT = new FrameFormat(0, 4, 0, true);
+
+    private static byte[] frame(int... body) {
+        byte[] frame = new byte[4 + body.length];
+        frame[3] = (byte) body.length;
+        for (int i = 0; i < body.length; i++) {
+            frame[4 + i] = (byte) body[i];
+        }
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return data;
+    }
+
+    private static void assertIncomplete(byte[] data, String message) {
+        try {
+            FrameSplitter.split(data, FORMAT);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    @Test
+    public void splitsFrames() {
+        byte[] a = frame(1, 2, 3);
+        byte[] b = frame(4);
+        List<byte[]> frames = FrameSplitter.split(concat(a, b), FORMAT);
+        assertEquals(2, frames.size());
+        assertArrayEquals(a, frames.get(0));
+        assertArrayEquals(b, frames.get(1));
+    }
+
+    @Test
+    public void emptyResponse() {
+        assertEquals(0, FrameSplitter.split(new byte[0], FORMAT).size());
+    }
+
+    @Test
+    public void emptyFrame() {
+        byte[] empty = frame();
+        byte[] b = frame(7);
+        List<byte[]> frames = FrameSplitter.split(concat(empty, b, empty), FORMAT);
+        assertEquals(3, frames.size());
+        assertArrayEquals(empty, frames.get(0));
+        assertArrayEquals(b, frames.get(1));
+        assertArrayEquals(empty, frames.get(2));
+    }
+
+    @Test
+    public void truncatedLengthField() {
+        assertIncomplete(concat(frame(1), new byte[] {0, 0}), "Incomplete message 2: 2 bytes left, header needs 4");
+    }
+
+    @Test
+    public void truncatedBody() {
+        byte[] b = frame(1, 2, 3);
+        byte[] data = concat(frame(9), b);
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertIncomplete(truncated, "Incomplete message 2: 6 bytes left, frame length 7");
+    }
+
+    @Test
+    public void invalidLength() {
+        // 调整后的长度小于len字段本身
+        FrameFormat format = new FrameFormat(0, 4, -8, true);
+        try {
+            FrameSplitter.split(frame(1, 2), format);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid frame length"));
+        }
+    }
+
+    @Test
+    public void hostOrderAndOffset() {
+        // 2字节命令字在前，之后是主机序的2字节len字段，长度包含整个消息
+        FrameFormat format = new FrameFormat(2, 2, -4, false);
+        byte[] a = {9, 9, 6, 0, 1, 2};
+        byte[] b = {8, 8, 4, 0};
+        List<byte[]> frames = FrameSplitter.split(concat(a, b), format);
+        assertEquals(2, frames.size());
+        assertArrayEquals(a, frames.get(0));
+        assertArrayEquals(b, frames.get(1));
+    }
+}
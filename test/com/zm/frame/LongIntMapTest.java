@@ -0,0 +1,129 @@
+package com.zm.frame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+    // capacity 4 gives a table of 8 slots
+    private static final int MASK = 7;
+
+    /**
+     * Same hash as LongIntMap, to find keys that collide at the end of the table.
+     */
+    private static int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & MASK;
+    }
+
+    private static List<Long> keysInSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<Long>();
+        for (long key = 0; keys.size() < count; key++) {
+            if (slot(key) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void putGetRemove() {
+        LongIntMap map = new LongIntMap(4);
+        assertEquals(LongIntMap.MISSING, map.put(10, 1));
+        assertEquals(1, map.put(10, 2));
+        assertEquals(2, map.get(10));
+        assertEquals(1, map.size());
+        assertEquals(2, map.remove(10));
+        assertEquals(LongIntMap.MISSING, map.get(10));
+        assertEquals(LongIntMap.MISSING, map.remove(10));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void removeShiftsWrappedChainBack() {
+        LongIntMap map = new LongIntMap(4);
+        // 三个键都在最后一个槽位，后两个绕回到0和1
+        List<Long> keys = keysInSlot(MASK, 3);
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), i);
+        }
+        assertEquals(0, map.remove(keys.get(0)));
+        assertEquals(1, map.get(keys.get(1)));
+        assertEquals(2, map.get(keys.get(2)));
+        assertEquals(2, map.remove(keys.get(2)));
+        assertEquals(1, map.get(keys.get(1)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void removeKeepsEntriesAtTheirHome() {
+        LongIntMap map = new LongIntMap(4);
+        long wrapped = keysInSlot(MASK, 2).get(1);
+        long atZero = keysInSlot(0, 1).get(0);
+        long first = keysInSlot(MASK, 1).get(0);
+        map.put(first, 1);
+        // 绕回到槽位0，占住了atZero的原位置
+        map.put(wrapped, 2);
+        map.put(atZero, 3);
+        assertEquals(1, map.remove(first));
+        assertEquals(2, map.get(wrapped));
+        assertEquals(3, map.get(atZero));
+        assertEquals(2, map.remove(wrapped));
+        assertEquals(3, map.get(atZero));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(16);
+            if (random.nextBoolean()) {
+                if (expected.size() < 4 || expected.containsKey(key)) {
+                    Integer old = expected.put(key, i);
+                    assertEquals(old == null ? LongIntMap.MISSING : old, map.put(key, i));
+                }
+            } else {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? LongIntMap.MISSING : old, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 16; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntMap.MISSING : value, map.get(key));
+        }
+    }
+
+    @Test
+    public void full() {
+        LongIntMap map = new LongIntMap(2);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(2, 3);
+        try {
+            map.put(3, 3);
+            fail();
+        } catch (IllegalStateException e) {
+            // 超过容量
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(LongIntMap.MISSING, map.get(1));
+        map.put(3, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeKey() {
+        new LongIntMap(2).put(-1, 0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.zm.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void linearBucketsAreExact() {
+        for (int v = 0; v < 128; v++) {
+            assertEquals(v, LatencyHistogram.index(v));
+            assertEquals(v, LatencyHistogram.highestValue(v));
+        }
+    }
+
+    @Test
+    public void firstLogarithmicBuckets() {
+        // 128以上每个2的幂分成64个桶，128到255每桶两个值
+        assertEquals(128, LatencyHistogram.index(128));
+        assertEquals(128, LatencyHistogram.index(129));
+        assertEquals(129, LatencyHistogram.index(130));
+        assertEquals(129, LatencyHistogram.highestValue(128));
+        assertEquals(191, LatencyHistogram.index(255));
+        assertEquals(255, LatencyHistogram.highestValue(191));
+        assertEquals(192, LatencyHistogram.index(256));
+        assertEquals(259, LatencyHistogram.highestValue(192));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(last));
+        for (int i = 0; i < last; i++) {
+            long highest = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.index(highest));
+            assertEquals(i + 1, LatencyHistogram.index(highest + 1));
+        }
+    }
+
+    @Test
+    public void precisionIsOneSixtyFourth() {
+        for (long v = 128; v < LatencyHistogram.MAX_VALUE; v = v * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(v));
+            assertTrue(v + " -> " + highest, highest >= v && highest - v <= v / 64);
+        }
+    }
+
+    @Test
+    public void recordClampsOutOfRangeValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(LatencyHistogram.MAX_VALUE + 1000);
+        assertEquals(2, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(50));
+        for (int v = 1; v <= 1000; v++) {
+            h.record(v);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 1e-9);
+        assertEquals(LatencyHistogram.highestValue(LatencyHistogram.index(500)), h.getValueAtPercentile(50));
+        assertEquals(1000, h.getValueAtPercentile(100));
+        assertEquals(1, h.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void addAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(3);
+        b.record(20);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(3, a.getMin());
+        assertEquals(20, a.getMax());
+        assertEquals(10, a.getValueAtPercentile(50));
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMin());
+        assertEquals(0, a.getMax());
+        assertEquals(0, a.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,158 @@
+package com.zm.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import com.zm.codec.HexCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillingResponseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SpillingResponse response;
+
+    @Before
+    public void setUp() {
+        response = new SpillingResponse(4, "MD5", folder.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        response.close();
+    }
+
+    private static byte[] bytes(String s) throws IOException {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    private void writeByteByByte(byte[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            response.write(data, i, 1);
+        }
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        return HexCodec.encode(MessageDigest.getInstance("MD5").digest(data));
+    }
+
+    @Test
+    public void headerSplitAcrossWrites() throws Exception {
+        String header = "HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\n";
+        byte[] data = bytes(header + "abc");
+        response.write(data, 0, 10);
+        assertFalse(response.isHeaderComplete());
+        assertEquals(-1, response.getContentLength());
+        response.write(data, 10, data.length - 10);
+        response.finish();
+        assertTrue(response.isHeaderComplete());
+        assertEquals(header.length(), response.getHeaderLength());
+        assertEquals(3, response.getContentLength());
+        assertEquals(3, response.getBodyLength());
+        assertEquals(data.length, response.getBufferedLength());
+        assertFalse(response.isSpilled());
+        assertEquals(md5(bytes("abc")), response.getBodyDigest());
+    }
+
+    @Test
+    public void contentLengthIsCaseInsensitive() throws Exception {
+        writeByteByByte(bytes("HTTP/1.1 200 OK\r\nHost: x\r\ncontent-LENGTH:   12  \r\n\r\n"));
+        assertEquals(12, response.getContentLength());
+    }
+
+    @Test
+    public void missingOrInvalidContentLength() throws Exception {
+        writeByteByByte(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        assertTrue(response.isHeaderComplete());
+        assertEquals(-1, response.getContentLength());
+        response.reset();
+        writeByteByByte(bytes("HTTP/1.1 200 OK\r\nContent-Length: ten\r\n\r\n"));
+        assertEquals(-1, response.getContentLength());
+    }
+
+    @Test
+    public void partialEndOfHeaderMatch() throws Exception {
+        // "\r\n\r" 之后的 "\r" 重新开始匹配
+        String header = "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\r\n\r\n";
+        writeByteByByte(bytes(header + "x"));
+        assertEquals(header.length(), response.getHeaderLength());
+        assertEquals(1, response.getContentLength());
+        assertEquals(1, response.getBodyLength());
+    }
+
+    @Test
+    public void noHttpHeader() throws Exception {
+        byte[] data = {'H', 'T', 'X', 1, 2};
+        response.write(data, 0, 2);
+        assertFalse(response.isHeaderComplete());
+        response.write(data, 2, 3);
+        response.finish();
+        assertEquals(0, response.getHeaderLength());
+        assertEquals(-1, response.getContentLength());
+        assertEquals(5, response.getBodyLength());
+        assertTrue(response.isSpilled());
+        assertEquals(md5(data), response.getBodyDigest());
+    }
+
+    @Test
+    public void shortResponseIsHeaderOnly() throws Exception {
+        response.write(bytes("HTT"), 0, 3);
+        response.finish();
+        assertTrue(response.isHeaderComplete());
+        assertEquals(3, response.getHeaderLength());
+        assertEquals(0, response.getBodyLength());
+    }
+
+    @Test
+    public void spillsBodyBeyondThreshold() throws Exception {
+        String header = "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n";
+        byte[] body = bytes("0123456789");
+        response.write(bytes(header), 0, header.length());
+        response.write(body, 0, 3);
+        assertFalse(response.isSpilled());
+        response.write(body, 3, 7);
+        response.finish();
+        assertTrue(response.isSpilled());
+        assertEquals(10, response.getBodyLength());
+        // 堆上只保留http头和threshold个body字节
+        assertEquals(header.length() + 4, response.getBufferedLength());
+        assertArrayEquals(bytes(header + "0123"), Arrays.copyOf(response.getBuffer(), response.getBufferedLength()));
+        File file = response.getSpillFile();
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals(md5(body), response.getBodyDigest());
+
+        // 下一个响应复用缓冲区，不再使用上次的文件
+        response.reset();
+        response.write(bytes("ab"), 0, 2);
+        response.finish();
+        assertFalse(response.isSpilled());
+        assertNull(response.getSpillFile());
+        assertEquals(md5(bytes("ab")), response.getBodyDigest());
+
+        response.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void withoutDigest() throws Exception {
+        SpillingResponse plain = new SpillingResponse(4, null, folder.getRoot());
+        plain.write(bytes("abc"), 0, 3);
+        plain.finish();
+        assertNull(plain.getBodyDigest());
+        plain.close();
+    }
+}
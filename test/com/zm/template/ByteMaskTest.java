@@ -0,0 +1,89 @@
+package com.zm.template;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import com.zm.message.Message;
+import org.junit.Test;
+
+public class ByteMaskTest {
+
+    // len 0-3, cmd 4-5, seq 6-9 (不比较), name 10-17, big 18-25 (不比较)
+    private static final String TEMPLATE = "1\n[config]\norder=net\n[lhead]\n4@len=0\n"
+            + "[head]\n2@cmd=1001\n4@seq=*\n[body]\ns@name=peer\n8@big=*\n";
+
+    private static ByteMask compile(String template) {
+        Message expect = new Message(template);
+        return ByteMask.compile(expect, expect.encode());
+    }
+
+    private static byte[] encode(String template) {
+        return new Message(template).encode();
+    }
+
+    @Test
+    public void matchesExpectedBytes() {
+        ByteMask mask = compile(TEMPLATE);
+        assertNotNull(mask);
+        assertTrue(mask.matches(encode(TEMPLATE)));
+    }
+
+    @Test
+    public void ignoresDontCareFields() {
+        ByteMask mask = compile(TEMPLATE);
+        byte[] data = encode(TEMPLATE);
+        for (int i = 6; i < 10; i++) {
+            data[i] = (byte) 0xff;
+        }
+        for (int i = 18; i < 26; i++) {
+            data[i] = (byte) i;
+        }
+        assertTrue(mask.matches(data));
+    }
+
+    @Test
+    public void checksEveryOtherByte() {
+        ByteMask mask = compile(TEMPLATE);
+        byte[] expected = encode(TEMPLATE);
+        for (int i = 0; i < expected.length; i++) {
+            if ((i >= 6 && i < 10) || i >= 18) {
+                continue;
+            }
+            byte[] data = expected.clone();
+            data[i] ^= 1;
+            assertFalse("byte " + i, mask.matches(data));
+        }
+    }
+
+    @Test
+    public void lengthMustMatch() {
+        ByteMask mask = compile(TEMPLATE);
+        byte[] expected = encode(TEMPLATE);
+        assertFalse(mask.matches(Arrays.copyOf(expected, expected.length - 1)));
+        assertFalse(mask.matches(Arrays.copyOf(expected, expected.length + 1)));
+    }
+
+    @Test
+    public void noDontCareFields() {
+        String template = TEMPLATE.replace("4@seq=*", "4@seq=7").replace("8@big=*", "8@big=1");
+        ByteMask mask = compile(template);
+        assertTrue(mask.matches(encode(template)));
+        assertFalse(mask.matches(encode(template.replace("4@seq=7", "4@seq=8"))));
+    }
+
+    @Test
+    public void variableSizeDontCareFieldHasNoMask() {
+        assertNull(compile(TEMPLATE.replace("s@name=peer", "s@name=*")));
+    }
+
+    @Test
+    public void encodedLengthMustAddUp() {
+        Message expect = new Message(TEMPLATE);
+        byte[] encoded = expect.encode();
+        assertNull(ByteMask.compile(expect, Arrays.copyOf(encoded, encoded.length + 2)));
+    }
+}
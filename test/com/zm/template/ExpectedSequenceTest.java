@@ -0,0 +1,115 @@
+package com.zm.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.zm.message.Message;
+import org.junit.Test;
+
+public class ExpectedSequenceTest {
+
+    private static final String HEAD = "1\n[config]\norder=net\n[lhead]\n4@len=0\n[head]\n2@cmd=1001\n";
+
+    private static String template(String seq) {
+        return HEAD + "4@seq=" + seq + "\n[body]\ns@name=peer\n";
+    }
+
+    private static String sequence(String... templates) {
+        StringBuilder sb = new StringBuilder();
+        for (String t : templates) {
+            if (sb.length() > 0) {
+                sb.append(ExpectedSequence.SEPARATOR).append('\n');
+            }
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] message(int seq) {
+        return new Message(template(Integer.toString(seq))).encode();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return data;
+    }
+
+    @Test
+    public void isSequence() {
+        assertTrue(ExpectedSequence.isSequence(sequence(template("1"), template("2"))));
+        assertTrue(ExpectedSequence.isSequence(template("1") + "  ---  \r\n" + template("2")));
+        assertFalse(ExpectedSequence.isSequence(template("1")));
+        assertFalse(ExpectedSequence.isSequence(HEAD + "s@name=a---b\n"));
+    }
+
+    @Test
+    public void splitsWithLenFieldOfFirstTemplate() {
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("1"), template("2")));
+        assertEquals(2, expected.size());
+        List<byte[]> frames = expected.split(concat(message(1), message(2)));
+        assertEquals(2, frames.size());
+        assertArrayEquals(message(1), frames.get(0));
+        assertArrayEquals(message(2), frames.get(1));
+    }
+
+    @Test
+    public void assignsInAnyOrder() {
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("1"), template("2"), template("3")));
+        List<byte[]> frames = Arrays.asList(message(3), message(1), message(2));
+        assertArrayEquals(new int[] {2, 0, 1}, expected.assign(frames));
+    }
+
+    @Test
+    public void wildcardDoesNotTakeTheOnlyTemplateOfAnotherMessage() {
+        // 贪心分配会把seq=2交给通配模板，seq=5就没有模板了
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("*"), template("2")));
+        List<byte[]> frames = Arrays.asList(message(2), message(5));
+        assertArrayEquals(new int[] {1, 0}, expected.assign(frames));
+    }
+
+    @Test
+    public void duplicateMessagesUseEachTemplateOnce() {
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("1"), template("2")));
+        List<byte[]> frames = Arrays.asList(message(1), message(1));
+        assertArrayEquals(new int[] {0, -1}, expected.assign(frames));
+    }
+
+    @Test
+    public void duplicateMessagesMatchDuplicateTemplates() {
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("1"), template("1")));
+        List<byte[]> frames = Arrays.asList(message(1), message(1));
+        int[] assigned = expected.assign(frames);
+        assertEquals(2, assigned.length);
+        assertTrue(assigned[0] >= 0 && assigned[1] >= 0 && assigned[0] != assigned[1]);
+    }
+
+    @Test
+    public void moreMessagesThanTemplates() {
+        ExpectedSequence expected = ExpectedSequence.forText(sequence(template("*"), template("*")));
+        int[] assigned = expected.assign(Arrays.asList(message(1), message(2), message(3)));
+        assertEquals(-1, assigned[2]);
+        assertTrue(assigned[0] >= 0 && assigned[1] >= 0 && assigned[0] != assigned[1]);
+    }
+
+    @Test
+    public void matchesSameText() {
+        String text = sequence(template("1"), template("2"));
+        ExpectedSequence expected = ExpectedSequence.forText(text);
+        assertTrue(expected.matches(text));
+        assertFalse(expected.matches(sequence(template("1"), template("3"))));
+    }
+}